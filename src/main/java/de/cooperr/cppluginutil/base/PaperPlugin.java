@@ -2,9 +2,13 @@ package de.cooperr.cppluginutil.base;
 
 import de.cooperr.cppluginutil.challenge.Challenge;
 import de.cooperr.cppluginutil.command.PaperCommand;
+import de.cooperr.cppluginutil.connector.DiscordWebhookConnector;
+import de.cooperr.cppluginutil.connector.PlayerSessionStore;
 import de.cooperr.cppluginutil.util.CustomConfig;
 import de.cooperr.cppluginutil.util.Localizer;
 import de.cooperr.cppluginutil.util.Timer;
+import de.cooperr.cppluginutil.util.TimerCheckpoints;
+import de.cooperr.cppluginutil.util.TimerEngine;
 import org.bukkit.event.Event;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.jetbrains.annotations.NotNull;
@@ -15,17 +19,102 @@ import javax.management.openmbean.KeyAlreadyExistsException;
 import java.io.Reader;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Represents the java plugin with some utility methods
  */
 public abstract class PaperPlugin extends JavaPlugin {
 
+    private static final int BOOTSTRAP_THREADS = 4;
+
     protected final List<Challenge<? extends PaperPlugin>> challenges = new ArrayList<>();
+    private final List<DiscordWebhookConnector> webhookConnectors = new CopyOnWriteArrayList<>();
 
     protected CustomConfig config;
     protected Timer timer;
+    protected TimerEngine timerEngine;
+    protected TimerCheckpoints timerCheckpoints;
     protected Localizer localizer;
+    protected PlayerSessionStore playerSessions;
+
+    private volatile boolean disableRequested;
+
+    /**
+     * Saves pending changes of the custom config, the timer checkpoints and the player sessions, stops watching files
+     * and closes the Discord Webhook connectors<br>
+     * Subclasses overriding this method have to call {@code super.onDisable()} before they close the database connector.
+     */
+    @Override
+    public void onDisable() {
+        if (playerSessions != null) {
+            playerSessions.close();
+        }
+        if (timerCheckpoints != null) {
+            timerCheckpoints.stop();
+        }
+        if (localizer != null) {
+            localizer.stopWatching();
+        }
+        if (config != null) {
+            config.stopWatching();
+            config.flush();
+        }
+        webhookConnectors.forEach(DiscordWebhookConnector::close); // last, so messages sent while disabling are delivered
+        webhookConnectors.clear();
+    }
+
+    /**
+     * Enables the plugin, should be called in {@link JavaPlugin#onEnable()}<br>
+     * First all steps added in {@link PaperPlugin#initialization(PluginBootstrap)} run in parallel, afterwards
+     * the challenges, commands and listeners are registered on the main thread.
+     * The duration of every step and phase is logged. If a step throws or disables the plugin, the plugin is disabled
+     * on the main thread and nothing is registered.
+     */
+    protected void bootstrap() {
+        var bootstrap = new PluginBootstrap(this, BOOTSTRAP_THREADS);
+        initialization(bootstrap);
+
+        if (!bootstrap.runSteps() || disableRequested) {
+            getServer().getPluginManager().disablePlugin(this);
+            return;
+        }
+        if (!isEnabled()) {
+            return;
+        }
+
+        bootstrap.phase("challenges", this::challengeRegistration);
+        bootstrap.phase("commands", this::commandRegistration);
+        bootstrap.phase("listeners", this::listenerRegistration);
+        bootstrap.report();
+    }
+
+    /**
+     * Adds the independent initialization steps to the bootstrap, e.g. creating the config, the localizer and the database connector<br>
+     * Add a step by calling {@link PluginBootstrap#step(String, Runnable)}.
+     *
+     * @param bootstrap bootstrap to which the steps should be added
+     * @see PaperPlugin#bootstrap()
+     */
+    protected void initialization(@NotNull PluginBootstrap bootstrap) {
+    }
+
+    /**
+     * Disables this plugin, can be called from any thread<br>
+     * The Bukkit API may only disable plugins on the main thread, so from other threads, e.g. from a bootstrap step,
+     * the plugin is disabled by the main thread: {@link PaperPlugin#bootstrap()} disables it once all steps are done,
+     * otherwise it is disabled with the next tick.
+     */
+    public void disable() {
+        if (getServer().isPrimaryThread()) {
+            getServer().getPluginManager().disablePlugin(this);
+            return;
+        }
+        disableRequested = true;
+        if (isEnabled()) {
+            getServer().getScheduler().runTask(this, () -> getServer().getPluginManager().disablePlugin(this));
+        }
+    }
 
     /**
      * Registers all challenges by instantiating every {@link Challenge}<br>
@@ -92,6 +181,15 @@ public abstract class PaperPlugin extends JavaPlugin {
         getServer().getPluginManager().registerEvents(listener, this);
     }
 
+    /**
+     * Registers the specific Discord Webhook connector to this plugin, so it is closed when the plugin is disabled
+     *
+     * @param connector connector to register
+     */
+    public void registerWebhookConnector(@NotNull DiscordWebhookConnector connector) {
+        webhookConnectors.add(connector);
+    }
+
     /**
      * Saves the custom config of this plugin
      *
@@ -150,8 +248,23 @@ public abstract class PaperPlugin extends JavaPlugin {
         return timer;
     }
 
+    @Nullable
+    public TimerEngine timerEngine() {
+        return timerEngine;
+    }
+
+    @Nullable
+    public TimerCheckpoints timerCheckpoints() {
+        return timerCheckpoints;
+    }
+
     @Nullable
     public Localizer localizer() {
         return localizer;
     }
+
+    @Nullable
+    public PlayerSessionStore playerSessions() {
+        return playerSessions;
+    }
 }
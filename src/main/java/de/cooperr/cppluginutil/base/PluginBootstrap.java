@@ -0,0 +1,136 @@
+package de.cooperr.cppluginutil.base;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * Enable phase of a plugin which runs independent initialization steps in parallel and measures every phase<br>
+ * Steps are meant for I/O heavy work such as loading the config, loading the language files or testing the database
+ * connection. They run on a bounded number of threads, so they must neither depend on each other nor use the Bukkit API
+ * except for thread safe methods like scheduling tasks. Fields assigned in a step are visible on the main thread once
+ * all steps are done.<br>
+ * A step reports a failure by throwing an exception or by calling {@link PaperPlugin#disable()}, never by disabling
+ * the plugin itself, the plugin is then disabled on the main thread after all steps are done.
+ *
+ * @see PaperPlugin#bootstrap()
+ */
+public class PluginBootstrap {
+
+    private final PaperPlugin plugin;
+    private final int parallelism;
+
+    private final Map<String, Runnable> steps = new LinkedHashMap<>();
+    private final List<Phase> phases = new ArrayList<>();
+    private final long startNanos = System.nanoTime();
+
+    /**
+     * @param plugin      plugin which is enabled
+     * @param parallelism maximum number of steps running at the same time
+     */
+    PluginBootstrap(@NotNull PaperPlugin plugin, int parallelism) {
+        this.plugin = plugin;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Adds an initialization step which runs in parallel to the other steps
+     *
+     * @param name name of the step used in the startup report, e.g. {@code "config"}
+     * @param step step to run
+     * @return this bootstrap
+     * @throws IllegalArgumentException if there is already a step with the name
+     */
+    @NotNull
+    public PluginBootstrap step(@NotNull String name, @NotNull Runnable step) {
+        if (steps.putIfAbsent(name, step) != null) {
+            throw new IllegalArgumentException("Bootstrap step \"%s\" already exists".formatted(name));
+        }
+        return this;
+    }
+
+    /**
+     * Runs all steps in parallel and waits until they are done
+     *
+     * @return whether all steps completed without an exception
+     */
+    boolean runSteps() {
+        if (steps.isEmpty()) {
+            return true;
+        }
+
+        var threadNumber = new AtomicInteger();
+        var executor = Executors.newFixedThreadPool(Math.min(parallelism, steps.size()), runnable -> {
+            var thread = new Thread(runnable, "%s-bootstrap-%d".formatted(plugin.getName(), threadNumber.incrementAndGet()));
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        var start = System.nanoTime();
+        var completed = true;
+        try {
+            var futures = new LinkedHashMap<String, Future<Long>>();
+            steps.forEach((name, step) -> futures.put(name, executor.submit(() -> {
+                var stepStart = System.nanoTime();
+                step.run();
+                return System.nanoTime() - stepStart;
+            })));
+
+            for (var entry : futures.entrySet()) {
+                try {
+                    phases.add(new Phase(entry.getKey(), entry.getValue().get(), true));
+                } catch (ExecutionException e) {
+                    plugin.getLogger().log(Level.SEVERE, "Failed to run bootstrap step \"%s\"".formatted(entry.getKey()), e.getCause());
+                    completed = false;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            completed = false;
+        } finally {
+            executor.shutdownNow();
+        }
+        phases.add(new Phase("parallel", System.nanoTime() - start, false));
+        return completed;
+    }
+
+    /**
+     * Runs a phase on the current thread and measures it
+     *
+     * @param name  name of the phase used in the startup report
+     * @param phase phase to run
+     */
+    void phase(@NotNull String name, @NotNull Runnable phase) {
+        var start = System.nanoTime();
+        phase.run();
+        phases.add(new Phase(name, System.nanoTime() - start, false));
+    }
+
+    /**
+     * Logs the duration of every step and phase
+     */
+    void report() {
+        var report = new StringBuilder("Enabled in %d ms (".formatted(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)));
+        for (var i = 0; i < phases.size(); i++) {
+            var phase = phases.get(i);
+            if (i > 0) {
+                report.append(", ");
+            }
+            report.append(phase.parallel() ? "step " : "").append(phase.name()).append(' ')
+                    .append(TimeUnit.NANOSECONDS.toMillis(phase.nanos())).append(" ms");
+        }
+        plugin.getLogger().info(report.append(')').toString());
+    }
+
+    private record Phase(@NotNull String name, long nanos, boolean parallel) {
+    }
+}
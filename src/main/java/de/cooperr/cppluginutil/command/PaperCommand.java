@@ -6,7 +6,6 @@ import net.kyori.adventure.text.format.NamedTextColor;
 import org.bukkit.command.CommandSender;
 import org.bukkit.command.PluginCommand;
 import org.bukkit.command.TabExecutor;
-import org.bukkit.entity.Player;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -40,8 +39,7 @@ public abstract class PaperCommand<T extends PaperPlugin> implements TabExecutor
         if (plugin.localizer() == null) {
             sender.sendMessage(Component.text(String.format("Usage: %s", plugin.getCommand(name()).getUsage()), NamedTextColor.DARK_RED));
         } else {
-            var locale = sender instanceof Player ? ((Player) sender).locale() : null;
-            sender.sendMessage(plugin.localizer().localizeMessage("command.usage", locale, plugin.getCommand(name()).getUsage()));
+            plugin.localizer().sendMessage(sender, "command.usage", plugin.getCommand(name()).getUsage());
         }
     }
 
@@ -54,8 +52,7 @@ public abstract class PaperCommand<T extends PaperPlugin> implements TabExecutor
         if (plugin.localizer() == null) {
             sender.sendMessage(Component.text("You have to be a player to use this command!", NamedTextColor.DARK_RED));
         } else {
-            var locale = sender instanceof Player ? ((Player) sender).locale() : null;
-            sender.sendMessage(plugin.localizer().localizeMessage("command.wrong_sender", locale));
+            plugin.localizer().sendMessage(sender, "command.wrong_sender");
         }
     }
 
@@ -63,8 +60,7 @@ public abstract class PaperCommand<T extends PaperPlugin> implements TabExecutor
         if (plugin.localizer() == null) {
             sender.sendMessage(Component.text("You don't have the permission to use this command!", NamedTextColor.DARK_RED));
         } else {
-            var locale = sender instanceof Player ? ((Player) sender).locale() : null;
-            sender.sendMessage(plugin.localizer().localizeMessage("command.no_permission", locale));
+            plugin.localizer().sendMessage(sender, "command.no_permission");
         }
     }
 
@@ -79,8 +75,7 @@ public abstract class PaperCommand<T extends PaperPlugin> implements TabExecutor
         if (plugin.localizer() == null) {
             sender.sendMessage(Component.text(error, NamedTextColor.DARK_RED));
         } else {
-            var locale = sender instanceof Player ? ((Player) sender).locale() : null;
-            sender.sendMessage(plugin.localizer().localizeMessage(error, locale, args));
+            plugin.localizer().sendMessage(sender, error, (Object[]) args);
         }
     }
 
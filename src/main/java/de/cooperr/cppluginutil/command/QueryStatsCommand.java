@@ -0,0 +1,111 @@
+package de.cooperr.cppluginutil.command;
+
+import de.cooperr.cppluginutil.base.PaperPlugin;
+import de.cooperr.cppluginutil.connector.DatabaseConnector;
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.format.NamedTextColor;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+/**
+ * Command which shows the statements of a database connector which took the most time in total<br>
+ * Usage: {@code /querystats [count|reset]}. The command has to be declared as {@value NAME} in the {@code plugin.yml}.
+ *
+ * @param <T> plugin to which this command should belong
+ */
+public class QueryStatsCommand<T extends PaperPlugin> extends PaperCommand<T> {
+
+    public static final String NAME = "querystats";
+
+    private static final int DEFAULT_COUNT = 5;
+    private static final int MAX_SQL_LENGTH = 120;
+
+    private final String permission;
+    private final DatabaseConnector connector;
+
+    /**
+     * Registers the command to the plugin
+     *
+     * @param plugin     plugin to which the command should belong
+     * @param permission permission which is required to use the command
+     * @param connector  connector whose statements should be shown
+     */
+    public QueryStatsCommand(@NotNull T plugin, @NotNull String permission, @NotNull DatabaseConnector connector) {
+        super(plugin);
+
+        this.permission = permission;
+        this.connector = connector;
+    }
+
+    @Override
+    public boolean onCommand(@NotNull CommandSender sender, @NotNull Command command, @NotNull String label, @NotNull String[] args) {
+        if (!sender.hasPermission(permission)) {
+            sendNoPermissionMessage(sender);
+            return true;
+        }
+
+        if (args.length == 1 && args[0].equalsIgnoreCase("reset")) {
+            connector.queryStats().reset();
+            sender.sendMessage(Component.text("Query statistics have been reset", NamedTextColor.GREEN));
+            return true;
+        }
+
+        var count = DEFAULT_COUNT;
+        if (args.length == 1) {
+            try {
+                count = Integer.parseInt(args[0]);
+            } catch (NumberFormatException e) {
+                sendCommandUsage(sender);
+                return true;
+            }
+            if (count < 1) {
+                sendCommandUsage(sender);
+                return true;
+            }
+        } else if (args.length > 1) {
+            sendCommandUsage(sender);
+            return true;
+        }
+
+        var pool = connector.pool().stats();
+        sender.sendMessage(Component.text("Pool: %d active, %d idle, %d waiting, borrow avg %.1f ms, max %.1f ms".formatted(
+                pool.active(), pool.idle(), pool.waiters(), pool.averageBorrowMillis(), pool.maxBorrowMillis()), NamedTextColor.GOLD));
+        var replicaPools = connector.replicaPools();
+        for (var i = 0; i < replicaPools.size(); i++) {
+            var replica = replicaPools.get(i).stats();
+            sender.sendMessage(Component.text("Replica %d: %d active, %d idle, %d waiting, borrow avg %.1f ms, max %.1f ms".formatted(i + 1,
+                    replica.active(), replica.idle(), replica.waiters(), replica.averageBorrowMillis(), replica.maxBorrowMillis()), NamedTextColor.GOLD));
+        }
+
+        var shapes = connector.queryStats().topByTotalTime(count);
+        if (shapes.isEmpty()) {
+            sender.sendMessage(Component.text("No statements have been recorded yet", NamedTextColor.GRAY));
+            return true;
+        }
+        for (var shape : shapes) {
+            var total = shape.total();
+            sender.sendMessage(Component.text("%.0f ms total, %d calls, %d errors, avg %.1f ms, p99 %.1f ms, max %.1f ms, borrow avg %.1f ms".formatted(
+                    total.totalMillis(), shape.calls(), shape.errors(), total.averageMillis(), total.percentileMillis(0.99),
+                    total.maxMillis(), shape.borrow().averageMillis()), NamedTextColor.YELLOW));
+            var sql = shape.sql().length() > MAX_SQL_LENGTH ? shape.sql().substring(0, MAX_SQL_LENGTH) + "..." : shape.sql();
+            sender.sendMessage(Component.text("  " + sql, NamedTextColor.GRAY));
+        }
+        return true;
+    }
+
+    @Override
+    @Nullable
+    public List<String> onTabComplete(@NotNull CommandSender sender, @NotNull Command command, @NotNull String label, @NotNull String[] args) {
+        return args.length == 1 && sender.hasPermission(permission) ? List.of("reset") : List.of();
+    }
+
+    @Override
+    @NotNull
+    public String name() {
+        return NAME; // constant, because the command is registered before the fields are assigned
+    }
+}
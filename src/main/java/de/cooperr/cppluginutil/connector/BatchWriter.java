@@ -0,0 +1,383 @@
+package de.cooperr.cppluginutil.connector;
+
+import de.cooperr.cppluginutil.base.PaperPlugin;
+import org.bukkit.scheduler.BukkitTask;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Write-behind queue which collects small writes and executes them in batches<br>
+ * Statements are grouped by their sql, every group is executed with {@link PreparedStatement#executeBatch()} and all groups
+ * of one flush are executed in a single transaction. A flush starts once enough statements are queued or the flush
+ * interval elapsed. Upserts with the same sql and key replace each other before they are flushed, so only the latest
+ * values of a key are written.<br>
+ * The statements of one sql are executed in the order in which they were queued, and upserts of one key are executed
+ * in the order in which they were queued even if their sql differs, other statements with different sql are not ordered.
+ * Failed flushes are queued again and statements are dropped once the maximum number of pending statements is queued,
+ * so the queue stays bounded while the database is unavailable.
+ */
+public class BatchWriter {
+
+    private static final int MAX_PENDING = 50_000;
+    private static final long DROP_WARNING_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final PaperPlugin plugin;
+    private final DatabaseConnector connector;
+    private final int batchSize;
+
+    private final Object lock = new Object();
+    private final Object flushLock = new Object();
+    private List<Group> groups = new ArrayList<>();
+    private final Map<String, Group> openGroups = new HashMap<>();
+    private final Map<Object, Group> upsertGroups = new HashMap<>();
+    private int pending;
+    private boolean flushQueued;
+    private int dropped;
+    private long nextOrder;
+    private long lastDropWarningNanos = System.nanoTime() - DROP_WARNING_INTERVAL_NANOS;
+
+    private final BukkitTask flushTask;
+
+    /**
+     * Creates the writer and starts flushing periodically
+     *
+     * @param plugin             plugin to which the writer belongs
+     * @param connector          connector which executes the batches
+     * @param batchSize          number of queued statements which start a flush
+     * @param flushIntervalTicks maximum time in ticks until queued statements are flushed
+     */
+    BatchWriter(@NotNull PaperPlugin plugin, @NotNull DatabaseConnector connector, int batchSize, long flushIntervalTicks) {
+        this.plugin = plugin;
+        this.connector = connector;
+        this.batchSize = batchSize;
+
+        flushTask = plugin.getServer().getScheduler().runTaskTimerAsynchronously(plugin, this::flushAsync,
+                flushIntervalTicks, flushIntervalTicks);
+    }
+
+    /**
+     * Queues a statement, can be called from any thread<br>
+     * The statement is dropped if the maximum number of pending statements is queued, e.g. while the database is unavailable.
+     *
+     * @param sql  sql command
+     * @param args arguments for the command
+     */
+    public void queue(@NotNull String sql, @Nullable Object... args) {
+        synchronized (lock) {
+            if (pending >= MAX_PENDING) {
+                dropped++;
+            } else {
+                openGroup(sql).statements.add(args == null ? new Object[0] : args);
+                pending++;
+            }
+        }
+        warnDropped();
+        flushIfFull();
+    }
+
+    /**
+     * Queues an upsert, an upsert with the same sql and key which is still queued is replaced, can be called from any thread<br>
+     * Use a {@link List} as key for composite keys. Upserts of new keys are dropped if the maximum number of pending
+     * statements is queued.
+     *
+     * @param sql  sql command, e.g. {@code INSERT ... ON DUPLICATE KEY UPDATE ...}
+     * @param key  key of the row which is written
+     * @param args arguments for the command
+     * @return future which completes once the upsert or an upsert which replaced it was committed, completes
+     * exceptionally with a {@link RejectedExecutionException} if it was dropped
+     */
+    @NotNull
+    public CompletableFuture<Void> queueUpsert(@NotNull String sql, @NotNull Object key, @Nullable Object... args) {
+        var arguments = args == null ? new Object[0] : args;
+        CompletableFuture<Void> written;
+        synchronized (lock) {
+            var keyGroup = upsertGroups.get(key);
+            if (keyGroup != null && keyGroup.sql.equals(sql)) { // no other upsert of the key was queued since
+                written = keyGroup.upserts.get(key).written();
+                keyGroup.upserts.put(key, new Upsert(arguments, written));
+            } else if (pending >= MAX_PENDING) {
+                dropped++;
+                written = CompletableFuture.failedFuture(new RejectedExecutionException("Too many database writes are queued"));
+            } else {
+                var group = openGroups.get(sql);
+                if (group == null || keyGroup != null && keyGroup.order > group.order) {
+                    group = newGroup(sql); // executed after the previous upsert of the key
+                }
+                written = new CompletableFuture<>();
+                group.upserts.put(key, new Upsert(arguments, written));
+                upsertGroups.put(key, group);
+                pending++;
+            }
+        }
+        warnDropped();
+        flushIfFull();
+        return written;
+    }
+
+    /**
+     * @param sql sql of the group
+     * @return latest group of the sql, a new group if there is none
+     */
+    @NotNull
+    private Group openGroup(@NotNull String sql) {
+        var group = openGroups.get(sql);
+        return group == null ? newGroup(sql) : group;
+    }
+
+    @NotNull
+    private Group newGroup(@NotNull String sql) {
+        var group = new Group(sql, nextOrder++);
+        groups.add(group);
+        openGroups.put(sql, group);
+        return group;
+    }
+
+    /**
+     * Logs the dropped statements at most once per interval, so an outage does not flood the log
+     */
+    private void warnDropped() {
+        int droppedStatements;
+        synchronized (lock) {
+            var now = System.nanoTime();
+            if (dropped == 0 || now - lastDropWarningNanos < DROP_WARNING_INTERVAL_NANOS) {
+                return;
+            }
+            droppedStatements = dropped;
+            dropped = 0;
+            lastDropWarningNanos = now;
+        }
+        plugin.getLogger().warning("Dropped %d database writes because too many writes are queued".formatted(droppedStatements));
+    }
+
+    private void flushIfFull() {
+        synchronized (lock) {
+            if (pending < batchSize || flushQueued) {
+                return;
+            }
+            flushQueued = true;
+        }
+        flushAsync();
+    }
+
+    private void flushAsync() {
+        if (pending() == 0) { // an idle writer must not borrow and validate a connection every interval
+            synchronized (lock) {
+                flushQueued = false;
+            }
+            return;
+        }
+        flush().exceptionally(throwable -> {
+            synchronized (lock) {
+                flushQueued = false;
+            }
+            if (connector.available()) { // the outage itself is logged by the connector
+                plugin.getLogger().log(Level.WARNING, "Failed to flush queued database writes", throwable);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Flushes all queued statements asynchronously, no connection is borrowed if nothing is queued
+     *
+     * @return future which completes when the statements were flushed
+     */
+    @NotNull
+    public CompletableFuture<Void> flush() {
+        if (pending() == 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        var requested = System.nanoTime();
+        return connector.supplyAsync(connection -> {
+            flush(connection, requested);
+            return null;
+        });
+    }
+
+    /**
+     * Flushes all queued statements synchronously with the connection
+     *
+     * @param connection     connection which executes the batches
+     * @param requestedNanos time at which the connection was requested, so the borrow time is recorded in the query stats
+     * @throws SQLException if the batches could not be executed, the statements are queued again or their futures fail
+     */
+    void flush(@NotNull Connection connection, long requestedNanos) throws SQLException {
+        var borrowed = System.nanoTime();
+        synchronized (flushLock) { // flushes must not overtake each other, otherwise older upserts could win
+            List<Group> flushed;
+            synchronized (lock) {
+                flushQueued = false;
+                if (pending == 0) {
+                    return;
+                }
+                flushed = groups;
+                groups = new ArrayList<>();
+                openGroups.clear();
+                upsertGroups.clear();
+                pending = 0;
+            }
+
+            Throwable failure = null;
+            var autoCommit = true;
+            try {
+                autoCommit = connection.getAutoCommit();
+                connection.setAutoCommit(false);
+                var start = requestedNanos;
+                for (var group : flushed) {
+                    executeBatch(connection, group, start, borrowed);
+                    start = borrowed = System.nanoTime(); // only the first batch waited for the connection
+                }
+                connection.commit();
+            } catch (Throwable e) {
+                failure = e;
+                try {
+                    connection.rollback();
+                } catch (Throwable rollbackFailure) { // usually the connection died, the statements are queued again anyway
+                    e.addSuppressed(rollbackFailure);
+                }
+            }
+
+            // the statements are never lost silently, every upsert future completes or is queued again
+            if (failure == null) {
+                flushed.forEach(group -> group.upserts.values().forEach(upsert -> upsert.written().complete(null)));
+            } else {
+                requeue(flushed, failure);
+            }
+
+            try {
+                connection.setAutoCommit(autoCommit);
+            } catch (Throwable e) {
+                if (failure == null) {
+                    failure = e; // the statements were committed, only the connection is broken
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+            if (failure instanceof SQLException e) {
+                throw e;
+            } else if (failure instanceof RuntimeException e) {
+                throw e;
+            } else if (failure instanceof Error e) {
+                throw e;
+            }
+        }
+    }
+
+    private void executeBatch(@NotNull Connection connection, @NotNull Group group, long startNanos, long borrowedNanos)
+            throws SQLException {
+        var sql = group.sql;
+        var success = false;
+        var parameters = 0;
+        try (var statement = connection.prepareStatement(sql)) {
+            var batched = 0;
+            var arguments = new ArrayList<>(group.statements);
+            group.upserts.values().forEach(upsert -> arguments.add(upsert.args()));
+            for (var args : arguments) {
+                DatabaseConnector.bind(statement, args);
+                statement.addBatch();
+                parameters += args.length;
+                if (++batched % batchSize == 0) {
+                    statement.executeBatch();
+                }
+            }
+            if (batched % batchSize != 0) {
+                statement.executeBatch();
+            }
+            success = true;
+        } finally {
+            connector.queryStats().record(sql, parameters, startNanos, borrowedNanos, System.nanoTime(), success);
+        }
+    }
+
+    /**
+     * Queues the statements of a failed flush in front of the statements queued in the meantime
+     *
+     * @param failed groups of the failed flush
+     * @param cause  failure of the flush, passed to the upserts if they are dropped
+     */
+    private void requeue(@NotNull List<Group> failed, @NotNull Throwable cause) {
+        synchronized (lock) {
+            var failedCount = failed.stream().mapToInt(Group::size).sum();
+            if (pending + failedCount > MAX_PENDING) {
+                plugin.getLogger().warning("Dropped %d database writes because too many writes are queued".formatted(failedCount));
+                failed.forEach(group -> group.upserts.values().forEach(upsert -> upsert.written().completeExceptionally(cause)));
+                return;
+            }
+
+            var requeued = new ArrayList<>(failed); // the failed groups are older, so they keep running first
+            requeued.addAll(groups);
+            groups = requeued;
+            openGroups.clear();
+            upsertGroups.clear();
+            for (var group : groups) {
+                openGroups.put(group.sql, group);
+                group.upserts.keySet().forEach(key -> upsertGroups.put(key, group));
+            }
+            pending += failedCount;
+        }
+    }
+
+    /**
+     * Stops flushing periodically and flushes all queued statements synchronously, called when the connector is closed
+     */
+    void close() {
+        flushTask.cancel();
+        var requested = System.nanoTime();
+        try {
+            connector.withConnection(connection -> {
+                flush(connection, requested);
+                return null;
+            });
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to flush %d queued database writes".formatted(pending()), e);
+        }
+    }
+
+    /**
+     * @return number of queued statements
+     */
+    public int pending() {
+        synchronized (lock) {
+            return pending;
+        }
+    }
+
+    /**
+     * Queued statements with the same sql
+     */
+    private static final class Group {
+
+        private final String sql;
+        private final long order;
+        private final List<Object[]> statements = new ArrayList<>();
+        private final Map<Object, Upsert> upserts = new LinkedHashMap<>();
+
+        private Group(@NotNull String sql, long order) {
+            this.sql = sql;
+            this.order = order;
+        }
+
+        private int size() {
+            return statements.size() + upserts.size();
+        }
+    }
+
+    /**
+     * Queued upsert with the future which completes once it was committed
+     */
+    private record Upsert(@NotNull Object[] args, @NotNull CompletableFuture<Void> written) {
+    }
+}
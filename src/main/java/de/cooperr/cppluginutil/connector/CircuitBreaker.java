@@ -0,0 +1,88 @@
+package de.cooperr.cppluginutil.connector;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Circuit breaker which opens after consecutive connection failures, so callers fail fast while the database is down<br>
+ * While it is open, only probes try to reach the database, a successful probe closes it again.
+ */
+final class CircuitBreaker {
+
+    private final int failureThreshold;
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile boolean open;
+
+    /**
+     * @param failureThreshold number of consecutive connection failures which open the breaker
+     */
+    CircuitBreaker(int failureThreshold) {
+        this.failureThreshold = failureThreshold;
+    }
+
+    /**
+     * Records a successful call
+     *
+     * @return whether the breaker was closed by this call
+     */
+    boolean recordSuccess() {
+        if (consecutiveFailures.get() != 0) { // avoids a write to the shared counter for every successful call
+            consecutiveFailures.set(0);
+        }
+        if (open) {
+            open = false;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records a failed call
+     *
+     * @return whether the breaker was opened by this call
+     */
+    boolean recordFailure() {
+        if (consecutiveFailures.incrementAndGet() >= failureThreshold && !open) {
+            open = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Opens the breaker without waiting for further failures, e.g. if a probe failed
+     *
+     * @return whether the breaker was opened by this call
+     */
+    boolean trip() {
+        consecutiveFailures.set(failureThreshold);
+        if (!open) {
+            open = true;
+            return true;
+        }
+        return false;
+    }
+
+    boolean open() {
+        return open;
+    }
+
+    /**
+     * Checks whether the exception shows that the database could not be reached, other errors like syntax errors
+     * do not count as failure<br>
+     * Timeouts do not count either, neither the borrow timeout of an exhausted pool nor statement timeouts of slow
+     * queries, since the database is reachable in both cases. The driver reports a connect timeout as communications failure.
+     *
+     * @param e exception to check
+     * @return whether the exception is a connection failure
+     */
+    static boolean connectionFailure(@NotNull SQLException e) {
+        return e instanceof SQLTransientConnectionException || e instanceof SQLNonTransientConnectionException ||
+                e instanceof SQLRecoverableException || e.getSQLState() != null && e.getSQLState().startsWith("08");
+    }
+}
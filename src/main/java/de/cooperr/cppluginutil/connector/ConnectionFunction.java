@@ -0,0 +1,23 @@
+package de.cooperr.cppluginutil.connector;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Work which is done with a pooled connection
+ *
+ * @param <R> result of the work
+ * @see DatabaseConnector#supplyAsync(ConnectionFunction)
+ */
+@FunctionalInterface
+public interface ConnectionFunction<R> {
+
+    /**
+     * Does the work with the connection, the connection must not be closed or kept after returning
+     *
+     * @param connection borrowed connection
+     * @return result of the work
+     * @throws SQLException if the work failed
+     */
+    R apply(Connection connection) throws SQLException;
+}
@@ -0,0 +1,498 @@
+package de.cooperr.cppluginutil.connector;
+
+import de.cooperr.cppluginutil.base.PaperPlugin;
+import org.bukkit.scheduler.BukkitTask;
+import org.jetbrains.annotations.NotNull;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLTimeoutException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+
+/**
+ * Bounded pool of database connections<br>
+ * Borrowed connections are returned to the pool when they are closed, so they are used with try-with-resources
+ * like unpooled connections. Statements must be closed before the connection is returned.
+ * Idle connections are validated before they are borrowed unless they were used just before, connections which are
+ * idle for too long or exceed their maximum lifetime are closed and replaced in the background.
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    private static final long VALIDATION_BYPASS_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+    private static final long MAINTENANCE_PERIOD_TICKS = 20 * 15;
+
+    private final PaperPlugin plugin;
+    private final DataSource dataSource;
+    private final Settings settings;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final ArrayDeque<PooledConnection> idleConnections = new ArrayDeque<>();
+    private int totalConnections;
+    private int activeConnections;
+    private int waiters;
+    private boolean closed;
+
+    private final LongAdder borrows = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder borrowNanos = new LongAdder();
+    private final AtomicLong maxBorrowNanos = new AtomicLong();
+
+    private final BukkitTask maintenanceTask;
+
+    /**
+     * Creates the pool and starts to open the minimum number of idle connections in the background
+     *
+     * @param plugin     plugin to which the pool belongs
+     * @param dataSource data source which opens the physical connections
+     * @param settings   settings of the pool
+     */
+    ConnectionPool(@NotNull PaperPlugin plugin, @NotNull DataSource dataSource, @NotNull Settings settings) {
+        this.plugin = plugin;
+        this.dataSource = dataSource;
+        this.settings = settings;
+
+        maintenanceTask = plugin.getServer().getScheduler().runTaskTimerAsynchronously(plugin, this::maintain, 0, MAINTENANCE_PERIOD_TICKS);
+    }
+
+    /**
+     * Borrows a connection, which is returned to the pool when it is closed<br>
+     * Waits up to the borrow timeout if all connections are in use.
+     *
+     * @return borrowed connection
+     * @throws SQLException if no connection could be opened or the borrow timeout elapsed
+     */
+    @NotNull
+    public Connection borrow() throws SQLException {
+        var start = System.nanoTime();
+        var deadline = start + settings.borrowTimeout().toNanos();
+
+        while (true) {
+            PooledConnection pooledConnection = null;
+            var create = false;
+
+            lock.lock();
+            try {
+                while (pooledConnection == null && !create) {
+                    if (closed) {
+                        throw new SQLException("Connection pool is closed");
+                    }
+                    pooledConnection = idleConnections.pollFirst();
+                    if (pooledConnection == null) {
+                        if (totalConnections < settings.maxSize()) {
+                            totalConnections++; // reserve the slot, the connection is opened without holding the lock
+                            create = true;
+                        } else {
+                            var remaining = deadline - System.nanoTime();
+                            if (remaining <= 0) {
+                                timeouts.increment();
+                                throw new SQLTimeoutException("Timed out after %d ms waiting for a database connection"
+                                        .formatted(settings.borrowTimeout().toMillis()));
+                            }
+                            waiters++;
+                            try {
+                                available.awaitNanos(remaining);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                throw new SQLException("Interrupted while waiting for a database connection", e);
+                            } finally {
+                                waiters--;
+                            }
+                        }
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if (create) {
+                try {
+                    pooledConnection = open();
+                } catch (SQLException | RuntimeException e) {
+                    discard(null);
+                    throw e;
+                }
+            } else if (!usable(pooledConnection)) {
+                discard(pooledConnection);
+                continue;
+            }
+
+            lock.lock();
+            try {
+                activeConnections++;
+            } finally {
+                lock.unlock();
+            }
+            recordBorrow(System.nanoTime() - start);
+            return pooledConnection.lease();
+        }
+    }
+
+    private boolean usable(@NotNull PooledConnection pooledConnection) {
+        var now = System.nanoTime();
+        if (now - pooledConnection.createdNanos > settings.maxLifetime().toNanos()) {
+            return false;
+        }
+        if (now - pooledConnection.lastUsedNanos < VALIDATION_BYPASS_NANOS) {
+            return true; // the connection just worked, validating it again would only cost a round trip
+        }
+        try {
+            return pooledConnection.physical.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void recordBorrow(long nanos) {
+        borrows.increment();
+        borrowNanos.add(nanos);
+        maxBorrowNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * Returns the connection to the pool or closes it if it is broken or too old
+     *
+     * @param pooledConnection connection to return
+     * @param broken           whether an error showed that the connection is broken
+     */
+    private void release(@NotNull PooledConnection pooledConnection, boolean broken) {
+        var reusable = !broken && pooledConnection.reset() &&
+                System.nanoTime() - pooledConnection.createdNanos <= settings.maxLifetime().toNanos();
+
+        lock.lock();
+        try {
+            activeConnections--;
+            if (reusable && !closed) {
+                pooledConnection.lastUsedNanos = System.nanoTime();
+                idleConnections.addFirst(pooledConnection); // most recently used first, so surplus connections become idle and are evicted
+                available.signal();
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        discard(pooledConnection);
+    }
+
+    /**
+     * Opens a physical connection, which is closed again if it cannot be wrapped
+     *
+     * @return new pooled connection
+     * @throws SQLException if the connection could not be opened
+     */
+    @NotNull
+    private PooledConnection open() throws SQLException {
+        var physical = dataSource.getConnection();
+        try {
+            return new PooledConnection(physical);
+        } catch (SQLException | RuntimeException e) {
+            try {
+                physical.close();
+            } catch (SQLException closeException) {
+                e.addSuppressed(closeException);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Closes the physical connection and frees its slot
+     *
+     * @param pooledConnection connection to close or null if the connection could not be opened
+     */
+    private void discard(PooledConnection pooledConnection) {
+        if (pooledConnection != null) {
+            pooledConnection.closePhysical();
+        }
+        lock.lock();
+        try {
+            totalConnections--;
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Evicts connections which are idle for too long or exceed their lifetime and opens connections up to the minimum idle count
+     */
+    private void maintain() {
+        var evicted = new ArrayList<PooledConnection>();
+        var missing = 0;
+
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            var now = System.nanoTime();
+            var iterator = idleConnections.descendingIterator(); // least recently used first
+            while (iterator.hasNext()) {
+                var pooledConnection = iterator.next();
+                var expired = now - pooledConnection.createdNanos > settings.maxLifetime().toNanos();
+                var idleTooLong = now - pooledConnection.lastUsedNanos > settings.idleTimeout().toNanos() &&
+                        totalConnections - evicted.size() > settings.minIdle();
+                if (expired || idleTooLong) {
+                    iterator.remove();
+                    evicted.add(pooledConnection);
+                }
+            }
+            missing = Math.min(settings.minIdle() - idleConnections.size(), settings.maxSize() - (totalConnections - evicted.size()));
+        } finally {
+            lock.unlock();
+        }
+
+        evicted.forEach(this::discard);
+
+        for (var i = 0; i < missing; i++) {
+            lock.lock();
+            try {
+                if (closed || totalConnections >= settings.maxSize()) {
+                    return;
+                }
+                totalConnections++;
+            } finally {
+                lock.unlock();
+            }
+
+            PooledConnection pooledConnection;
+            try {
+                pooledConnection = open();
+            } catch (SQLException | RuntimeException e) {
+                discard(null);
+                plugin.getLogger().log(Level.FINE, "Failed to open idle database connection", e); // outages are logged by the connector
+                return;
+            }
+
+            lock.lock();
+            try {
+                if (!closed) {
+                    idleConnections.addLast(pooledConnection);
+                    available.signal();
+                    continue;
+                }
+            } finally {
+                lock.unlock();
+            }
+            discard(pooledConnection);
+        }
+    }
+
+    /**
+     * Closes all idle connections and stops the maintenance, borrowed connections are closed when they are returned
+     */
+    @Override
+    public void close() {
+        maintenanceTask.cancel();
+
+        var connections = new ArrayList<PooledConnection>();
+        lock.lock();
+        try {
+            closed = true;
+            connections.addAll(idleConnections);
+            idleConnections.clear();
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        connections.forEach(this::discard);
+    }
+
+    /**
+     * @return current statistics of the pool
+     */
+    @NotNull
+    public Stats stats() {
+        lock.lock();
+        try {
+            var count = borrows.sum();
+            return new Stats(activeConnections, idleConnections.size(), totalConnections, waiters, count, timeouts.sum(),
+                    count == 0 ? 0 : borrowNanos.sum() / count / 1_000_000d, maxBorrowNanos.get() / 1_000_000d);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @NotNull
+    public Settings settings() {
+        return settings;
+    }
+
+    /**
+     * Physical connection of the pool, every lease is a new proxy, so a closed lease cannot be used anymore
+     */
+    private final class PooledConnection {
+
+        private final Connection physical;
+        private final long createdNanos = System.nanoTime();
+        private final int defaultIsolation;
+        private final String defaultCatalog;
+        private long lastUsedNanos = createdNanos;
+        private boolean stateChanged;
+
+        private PooledConnection(@NotNull Connection physical) throws SQLException {
+            this.physical = physical;
+            this.defaultIsolation = physical.getTransactionIsolation();
+            this.defaultCatalog = physical.getCatalog();
+        }
+
+        @NotNull
+        private Connection lease() {
+            stateChanged = false;
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, new Lease(this));
+        }
+
+        /**
+         * Resets the state changed by the last lease, open transactions are rolled back
+         *
+         * @return whether the connection can be used again
+         */
+        private boolean reset() {
+            try {
+                if (physical.isClosed()) {
+                    return false;
+                }
+                if (stateChanged) {
+                    if (!physical.getAutoCommit()) {
+                        physical.rollback();
+                        physical.setAutoCommit(true);
+                    }
+                    physical.setReadOnly(false);
+                    physical.setTransactionIsolation(defaultIsolation);
+                    if (defaultCatalog != null) {
+                        physical.setCatalog(defaultCatalog);
+                    }
+                }
+                physical.clearWarnings();
+                return true;
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        private void closePhysical() {
+            try {
+                physical.close();
+            } catch (SQLException ignored) {
+                // the connection is dropped anyway
+            }
+        }
+    }
+
+    /**
+     * Borrowed view of a pooled connection, closing it returns the connection to the pool
+     */
+    private final class Lease implements InvocationHandler {
+
+        private final PooledConnection pooledConnection;
+        private boolean closed;
+        private boolean broken;
+
+        private Lease(@NotNull PooledConnection pooledConnection) {
+            this.pooledConnection = pooledConnection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close" -> {
+                    if (!closed) {
+                        closed = true;
+                        release(pooledConnection, broken);
+                    }
+                    return null;
+                }
+                case "isClosed" -> {
+                    return closed || pooledConnection.physical.isClosed();
+                }
+                case "equals" -> {
+                    return proxy == args[0];
+                }
+                case "hashCode" -> {
+                    return System.identityHashCode(proxy);
+                }
+                case "toString" -> {
+                    return "Pooled" + pooledConnection.physical;
+                }
+                case "setAutoCommit", "setReadOnly", "setTransactionIsolation", "setCatalog", "setSchema" ->
+                        pooledConnection.stateChanged = true;
+                default -> {
+                }
+            }
+            if (closed) {
+                throw new SQLException("Connection is already returned to the pool");
+            }
+
+            try {
+                return method.invoke(pooledConnection.physical, args);
+            } catch (InvocationTargetException e) {
+                var cause = e.getCause();
+                if (cause instanceof SQLNonTransientConnectionException ||
+                        cause instanceof SQLException sqlException && sqlException.getSQLState() != null &&
+                                sqlException.getSQLState().startsWith("08")) {
+                    broken = true; // connection exceptions leave the connection unusable
+                }
+                throw cause;
+            }
+        }
+    }
+
+    /**
+     * Settings of a connection pool
+     *
+     * @param minIdle       number of connections which are kept open even if they are not used
+     * @param maxSize       maximum number of open connections
+     * @param maxLifetime   time after which a connection is replaced, should be shorter than the timeout of the database
+     * @param idleTimeout   time after which an idle connection is closed if there are more than the minimum idle connections
+     * @param borrowTimeout maximum time to wait for a connection if all connections are in use
+     */
+    public record Settings(int minIdle, int maxSize, @NotNull Duration maxLifetime, @NotNull Duration idleTimeout,
+                           @NotNull Duration borrowTimeout) {
+
+        public Settings {
+            if (maxSize < 1 || minIdle < 0 || minIdle > maxSize) {
+                throw new IllegalArgumentException("Invalid pool size, min idle %d and max size %d".formatted(minIdle, maxSize));
+            }
+        }
+
+        /**
+         * @return settings with 2 idle and at most 10 connections, a lifetime of 30 minutes, an idle timeout of 10 minutes
+         * and a borrow timeout of 5 seconds
+         */
+        @NotNull
+        public static Settings defaults() {
+            return new Settings(2, 10, Duration.ofMinutes(30), Duration.ofMinutes(10), Duration.ofSeconds(5));
+        }
+    }
+
+    /**
+     * Statistics of a connection pool
+     *
+     * @param active              number of borrowed connections
+     * @param idle                number of idle connections
+     * @param total               number of open connections, incl. connections which are being opened
+     * @param waiters             number of threads waiting for a connection
+     * @param borrows             number of successful borrows
+     * @param timeouts            number of borrows which timed out
+     * @param averageBorrowMillis average time to borrow a connection in milliseconds
+     * @param maxBorrowMillis     maximum time to borrow a connection in milliseconds
+     */
+    public record Stats(int active, int idle, int total, int waiters, long borrows, long timeouts,
+                        double averageBorrowMillis, double maxBorrowMillis) {
+    }
+}
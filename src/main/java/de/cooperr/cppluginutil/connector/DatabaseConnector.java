@@ -1,29 +1,80 @@
 package de.cooperr.cppluginutil.connector;
 
 import com.mysql.cj.conf.ConnectionUrl;
-import com.mysql.cj.jdbc.MysqlConnectionPoolDataSource;
 import com.mysql.cj.jdbc.MysqlDataSource;
 import de.cooperr.cppluginutil.base.PaperPlugin;
+import org.bukkit.scheduler.BukkitTask;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 
 /**
- * Database connector for MySQL
+ * Database connector for MySQL<br>
+ * Connections are taken from a bounded {@link ConnectionPool}, so the connector has to be closed when the plugin is disabled.
+ * Asynchronous queries run on a dedicated executor with one thread per pooled connection and a bounded queue,
+ * queries submitted while the queue is full fail immediately instead of piling up.<br>
+ * The connector does not block while it is created, the database is checked in the background. After repeated
+ * connection failures all queries fail immediately with a {@link SQLTransientConnectionException} until a background
+ * probe reaches the database again, see {@link DatabaseConnector#health()}.<br>
+ * Read replicas can be added with {@link DatabaseConnector#addReplica(String, Integer)}. Queries are then spread over
+ * the replicas and replicas which cannot be reached are skipped until a probe reaches them again, while all other
+ * statements are sent to the primary. Use a {@link DatabaseSession} to read the own writes despite replication lag.
  */
 public class DatabaseConnector {
 
+    private static final int QUEUE_CAPACITY = 1024;
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 10;
+    private static final int BATCH_SIZE = 500;
+    private static final long BATCH_FLUSH_INTERVAL_TICKS = 20;
+    private static final int STREAM_FETCH_SIZE = 1000;
+    private static final int FAILURE_THRESHOLD = 3;
+    private static final long PROBE_INTERVAL_TICKS = 20 * 5;
+    private static final int PROBE_TIMEOUT_SECONDS = 2;
+    private static final Duration DEFAULT_READ_YOUR_WRITES_WINDOW = Duration.ofSeconds(1);
+
     private final PaperPlugin plugin;
 
-    private final MysqlDataSource dataSource = new MysqlConnectionPoolDataSource();
+    private final String database;
+    private final String user;
+    private final String password;
+    private final ConnectionPool.Settings poolSettings;
+
+    private final DatabaseNode primary;
+    private final List<DatabaseNode> replicas = new CopyOnWriteArrayList<>();
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final DatabaseSession sharedSession;
+    private final ThreadPoolExecutor executor;
+    private final Executor mainThreadExecutor;
+    private final BatchWriter batchWriter;
+    private final QueryStats queryStats;
+    private final List<Consumer<DatabaseHealth>> healthListeners = new CopyOnWriteArrayList<>();
+    private final BukkitTask probeTask;
+
+    private volatile long readYourWritesNanos = DEFAULT_READ_YOUR_WRITES_WINDOW.toNanos();
 
     /**
-     * Builds the data source and finally tests it
+     * Builds the data source with the default pool settings and starts to check the database in the background
      *
      * @param plugin   plugin to which this connector should belong
      * @param host     address to the database, if null the default host will be used
@@ -34,8 +85,58 @@ public class DatabaseConnector {
      */
     public DatabaseConnector(@NotNull PaperPlugin plugin, @Nullable String host, @Nullable Integer port, @Nullable String database,
                              @NotNull String user, @Nullable String password) {
+        this(plugin, host, port, database, user, password, ConnectionPool.Settings.defaults());
+    }
+
+    /**
+     * Builds the data source and the connection pool and starts to check the database in the background
+     *
+     * @param plugin       plugin to which this connector should belong
+     * @param host         address to the database, if null the default host will be used
+     * @param port         port to connect, if null the default port will be used
+     * @param database     database to use
+     * @param user         user to use for login
+     * @param password     password to use for login
+     * @param poolSettings settings of the connection pool
+     */
+    public DatabaseConnector(@NotNull PaperPlugin plugin, @Nullable String host, @Nullable Integer port, @Nullable String database,
+                             @NotNull String user, @Nullable String password, @NotNull ConnectionPool.Settings poolSettings) {
         this.plugin = plugin;
+        this.database = database;
+        this.user = user;
+        this.password = password;
+        this.poolSettings = poolSettings;
 
+        primary = createNode("primary", host, port);
+        sharedSession = new DatabaseSession(this, false);
+        queryStats = new QueryStats(plugin);
+
+        var threadNumber = new AtomicInteger();
+        executor = new ThreadPoolExecutor(poolSettings.maxSize(), poolSettings.maxSize(), 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY), runnable -> {
+            var thread = new Thread(runnable, "%s-database-%d".formatted(plugin.getName(), threadNumber.incrementAndGet()));
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        mainThreadExecutor = task -> plugin.getServer().getScheduler().runTask(plugin, task);
+        batchWriter = new BatchWriter(plugin, this, BATCH_SIZE, BATCH_FLUSH_INTERVAL_TICKS);
+
+        probeTask = plugin.getServer().getScheduler().runTaskTimerAsynchronously(plugin, () -> {
+            if (primary.health() != DatabaseHealth.AVAILABLE) {
+                probe(primary);
+            }
+            for (var replica : replicas) {
+                if (replica.health() != DatabaseHealth.AVAILABLE) {
+                    probe(replica);
+                }
+            }
+        }, 0, PROBE_INTERVAL_TICKS);
+    }
+
+    @NotNull
+    private DatabaseNode createNode(@NotNull String name, @Nullable String host, @Nullable Integer port) {
+        var dataSource = new MysqlDataSource();
         dataSource.setServerName(host == null ? ConnectionUrl.DEFAULT_HOST : host);
         dataSource.setPortNumber(port == null ? ConnectionUrl.DEFAULT_PORT : port);
         if (database != null) {
@@ -45,72 +146,662 @@ public class DatabaseConnector {
         if (password != null) {
             dataSource.setPassword(password);
         }
+        try {
+            dataSource.setRewriteBatchedStatements(true); // sends a batch of inserts as one multi-row insert
+            dataSource.setUseServerPrepStmts(true);
+            dataSource.setCachePrepStmts(true); // prepared statements are parsed once per pooled connection
+            dataSource.setPrepStmtCacheSize(250);
+            dataSource.setPrepStmtCacheSqlLimit(2048);
+            dataSource.setUseCursorFetch(true); // statements with a fetch size read the rows in chunks
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to configure database driver", e);
+        }
+        return new DatabaseNode(name, dataSource, new ConnectionPool(plugin, dataSource, poolSettings), FAILURE_THRESHOLD);
+    }
+
+    /**
+     * Adds a read replica of the primary with the same database and login and its own connection pool<br>
+     * Queries are spread round-robin over the replicas, the replica is checked in the background like the primary.
+     *
+     * @param host address to the replica, if null the default host will be used
+     * @param port port to connect, if null the default port will be used
+     */
+    public void addReplica(@Nullable String host, @Nullable Integer port) {
+        var replica = createNode("%s:%d".formatted(host == null ? ConnectionUrl.DEFAULT_HOST : host,
+                port == null ? ConnectionUrl.DEFAULT_PORT : port), host, port);
+        synchronized (executor) {
+            var threads = executor.getMaximumPoolSize() + poolSettings.maxSize(); // one thread per pooled connection
+            executor.setMaximumPoolSize(threads);
+            executor.setCorePoolSize(threads);
+        }
+        replicas.add(replica);
+    }
 
-        testDataSource();
+    /**
+     * Tests whether the primary database can be reached and updates the health, blocks up to a few seconds<br>
+     * The database is tested in the background anyway while it is not available.
+     *
+     * @return whether the database can be reached
+     */
+    public boolean testDataSource() {
+        return probe(primary);
     }
 
-    public void testDataSource() {
-        try (var connection = dataSource.getConnection()) {
-            if (!connection.isValid(1000)) {
-                throw new SQLException();
+    private boolean probe(@NotNull DatabaseNode node) {
+        try (var connection = node.pool().borrow()) {
+            if (!connection.isValid(PROBE_TIMEOUT_SECONDS)) {
+                throw new SQLTransientConnectionException("Database connection is not valid");
             }
         } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "Failed to connect to database", e);
-            plugin.getServer().getPluginManager().disablePlugin(plugin);
+            if (node.health() != DatabaseHealth.UNAVAILABLE) {
+                plugin.getLogger().log(Level.SEVERE, "Failed to connect to database \"%s\"".formatted(node.name()), e);
+            }
+            node.circuitBreaker().trip();
+            updateHealth(node, DatabaseHealth.UNAVAILABLE);
+            return false;
+        }
+        node.circuitBreaker().recordSuccess();
+        updateHealth(node, DatabaseHealth.AVAILABLE);
+        return true;
+    }
+
+    /**
+     * Borrows a connection from the pool of the primary unless its circuit breaker is open
+     *
+     * @return borrowed connection
+     * @throws SQLException if the database is unavailable or no connection could be borrowed
+     */
+    @NotNull
+    Connection borrow() throws SQLException {
+        return borrow(primary);
+    }
+
+    @NotNull
+    private Connection borrow(@NotNull DatabaseNode node) throws SQLException {
+        if (node.circuitBreaker().open()) {
+            throw new SQLTransientConnectionException("Database is unavailable");
+        }
+        try {
+            return node.pool().borrow();
+        } catch (SQLException e) {
+            failed(node, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Borrows a connection for a query of the session from a replica, or from the primary if there is no available
+     * replica, the session is pinned to the primary or the replica could not lend a connection
+     *
+     * @param session session of the query
+     * @return borrowed connection and the node it belongs to
+     * @throws SQLException if no connection could be borrowed from the primary
+     */
+    @NotNull
+    private Lease borrowForRead(@NotNull DatabaseSession session) throws SQLException {
+        if (!replicas.isEmpty() && !session.pinned()) {
+            var count = replicas.size();
+            var first = Math.floorMod(nextReplica.getAndIncrement(), count);
+            for (var i = 0; i < count; i++) {
+                var replica = replicas.get((first + i) % count);
+                if (replica.circuitBreaker().open()) {
+                    continue;
+                }
+                try {
+                    return new Lease(replica, borrow(replica));
+                } catch (SQLException e) {
+                    break; // the query was not sent yet, so the primary can take it
+                }
+            }
+        }
+        return new Lease(primary, borrow(primary));
+    }
+
+    /**
+     * Does the work with a borrowed connection and records the outcome in the circuit breaker
+     *
+     * @param work work to do with the connection
+     * @param <R>  result of the work
+     * @return result of the work
+     * @throws SQLException if the database is unavailable or the work failed
+     */
+    <R> R withConnection(@NotNull ConnectionFunction<R> work) throws SQLException {
+        try (var connection = borrow(primary)) {
+            return succeeded(primary, work.apply(connection));
+        } catch (SQLException e) {
+            failed(primary, e);
+            throw e;
+        }
+    }
+
+    private <R> R succeeded(@NotNull DatabaseNode node, R result) {
+        if (node.circuitBreaker().recordSuccess()) {
+            updateHealth(node, DatabaseHealth.AVAILABLE);
+        }
+        return result;
+    }
+
+    private void failed(@NotNull DatabaseNode node, @NotNull SQLException e) {
+        var circuitBreaker = node.circuitBreaker();
+        if (CircuitBreaker.connectionFailure(e) && !circuitBreaker.open() && circuitBreaker.recordFailure()) {
+            updateHealth(node, DatabaseHealth.UNAVAILABLE);
+        }
+    }
+
+    private synchronized void updateHealth(@NotNull DatabaseNode node, @NotNull DatabaseHealth health) {
+        var previous = node.health(health);
+        if (previous == health) {
+            return;
+        }
+
+        if (node != primary) {
+            if (health == DatabaseHealth.UNAVAILABLE) {
+                plugin.getLogger().warning("Database replica \"%s\" is unavailable, its queries are sent to the other nodes".formatted(node.name()));
+            } else if (previous == DatabaseHealth.UNAVAILABLE) {
+                plugin.getLogger().info("Database replica \"%s\" can be reached again".formatted(node.name()));
+            }
+            return;
+        }
+        if (health == DatabaseHealth.UNAVAILABLE) {
+            plugin.getLogger().warning("Database is unavailable, queries fail immediately until it can be reached again");
+        } else if (previous == DatabaseHealth.UNAVAILABLE) {
+            plugin.getLogger().info("Database can be reached again");
+        }
+        if (!healthListeners.isEmpty() && plugin.isEnabled()) {
+            mainThreadExecutor.execute(() -> healthListeners.forEach(listener -> listener.accept(health)));
         }
     }
 
     /**
-     * Executes a sql command
+     * Adds a listener which is called on the main thread whenever the health of the primary database changes
+     *
+     * @param listener listener receiving the new health
+     */
+    public void addHealthListener(@NotNull Consumer<DatabaseHealth> listener) {
+        healthListeners.add(listener);
+    }
+
+    /**
+     * @return current health of the primary database
+     */
+    @NotNull
+    public DatabaseHealth health() {
+        return primary.health();
+    }
+
+    /**
+     * @return whether statements are currently sent to the primary database, false while its circuit breaker is open
+     */
+    public boolean available() {
+        return !primary.circuitBreaker().open();
+    }
+
+    /**
+     * Creates a session which reads its own writes, its queries are sent to the primary for the read-your-writes
+     * window after each of its writes<br>
+     * Queries of the connector itself are always spread over the replicas, so they might not see a write which was
+     * just done.
+     *
+     * @return new session
+     * @see DatabaseConnector#readYourWritesWindow(Duration)
+     */
+    @NotNull
+    public DatabaseSession session() {
+        return new DatabaseSession(this, true);
+    }
+
+    /**
+     * @return duration after a write of a session in which its queries are sent to the primary
+     */
+    @NotNull
+    public Duration readYourWritesWindow() {
+        return Duration.ofNanos(readYourWritesNanos);
+    }
+
+    /**
+     * @param readYourWritesWindow duration after a write of a session in which its queries are sent to the primary,
+     *                             should be longer than the usual replication lag
+     */
+    public void readYourWritesWindow(@NotNull Duration readYourWritesWindow) {
+        this.readYourWritesNanos = readYourWritesWindow.toNanos();
+    }
+
+    /**
+     * Executes a sql command, failures are logged
      *
      * @param sql  sql command
      * @param args arguments for the command
      */
     public void executeSql(@NotNull String sql, @Nullable Object... args) {
-        try (var connection = dataSource.getConnection();
-             var statement = connection.prepareStatement(sql)) {
-            for (int i = 0; i < args.length; i++) {
-                statement.setObject(i, args);
-            }
-            statement.execute();
+        executeSql(sharedSession, sql, args);
+    }
+
+    void executeSql(@NotNull DatabaseSession session, @NotNull String sql, @Nullable Object[] args) {
+        try {
+            measured(session, false, sql, args, connection -> execute(connection, sql, args));
         } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "Failed to execute sql script \"%s\" with args \"%s\"".formatted(sql, args), e);
-            plugin.getServer().getPluginManager().disablePlugin(plugin);
+            if (available()) { // the outage itself is logged once
+                plugin.getLogger().log(Level.SEVERE, "Failed to execute sql script \"%s\" with %d args".formatted(sql, parameterCount(args)), e);
+            }
         }
     }
 
     /**
-     * Executes a sql file
+     * Executes a sql command asynchronously
      *
-     * @param file sql file which will be executed
+     * @param sql  sql command
+     * @param args arguments for the command
+     * @return future which completes when the command was executed or completes exceptionally with the {@link SQLException}
+     * or a {@link RejectedExecutionException} if too many queries are queued
      */
-    public void executeSqlFile(@NotNull File file) {
-        var setup = "";
-        try (var inputStream = new FileInputStream(file)) {
-            setup = new String(inputStream.readAllBytes());
-        } catch (IOException e) {
-            plugin.getLogger().log(Level.SEVERE, "Failed to read sql file \"%s\"".formatted(file.getName()), e);
-            plugin.getServer().getPluginManager().disablePlugin(plugin);
+    @NotNull
+    public CompletableFuture<Void> executeSqlAsync(@NotNull String sql, @Nullable Object... args) {
+        return executeSqlAsync(sharedSession, sql, args);
+    }
+
+    @NotNull
+    CompletableFuture<Void> executeSqlAsync(@NotNull DatabaseSession session, @NotNull String sql, @Nullable Object[] args) {
+        return measuredAsync(session, false, sql, args, connection -> execute(connection, sql, args));
+    }
+
+    /**
+     * Executes a query and maps all rows
+     *
+     * @param sql    sql query
+     * @param mapper mapper of the rows
+     * @param args   arguments for the query
+     * @param <T>    type of the mapped rows
+     * @return mapped rows
+     * @throws SQLException if the query failed
+     */
+    @NotNull
+    public <T> List<T> query(@NotNull String sql, @NotNull RowMapper<T> mapper, @Nullable Object... args) throws SQLException {
+        return query(sharedSession, sql, mapper, args);
+    }
+
+    @NotNull
+    <T> List<T> query(@NotNull DatabaseSession session, @NotNull String sql, @NotNull RowMapper<T> mapper,
+                      @Nullable Object[] args) throws SQLException {
+        return measured(session, true, sql, args, connection -> query(connection, sql, mapper, args));
+    }
+
+    /**
+     * Executes a query and maps the first row
+     *
+     * @param sql    sql query
+     * @param mapper mapper of the row
+     * @param args   arguments for the query
+     * @param <T>    type of the mapped row
+     * @return mapped row or null if there is no row
+     * @throws SQLException if the query failed
+     */
+    @Nullable
+    public <T> T queryFirst(@NotNull String sql, @NotNull RowMapper<T> mapper, @Nullable Object... args) throws SQLException {
+        return queryFirst(sharedSession, sql, mapper, args);
+    }
+
+    @Nullable
+    <T> T queryFirst(@NotNull DatabaseSession session, @NotNull String sql, @NotNull RowMapper<T> mapper,
+                     @Nullable Object[] args) throws SQLException {
+        return measured(session, true, sql, args, connection -> {
+            try (var statement = prepare(connection, sql, args)) {
+                statement.setMaxRows(1);
+                try (var resultSet = statement.executeQuery()) {
+                    return resultSet.next() ? mapper.map(resultSet) : null;
+                }
+            }
+        });
+    }
+
+    /**
+     * Executes a query asynchronously and maps all rows
+     *
+     * @param sql    sql query
+     * @param mapper mapper of the rows
+     * @param args   arguments for the query
+     * @param <T>    type of the mapped rows
+     * @return future with the mapped rows
+     * @see DatabaseConnector#supplyAsync(ConnectionFunction)
+     */
+    @NotNull
+    public <T> CompletableFuture<List<T>> queryAsync(@NotNull String sql, @NotNull RowMapper<T> mapper, @Nullable Object... args) {
+        return queryAsync(sharedSession, sql, mapper, args);
+    }
+
+    @NotNull
+    <T> CompletableFuture<List<T>> queryAsync(@NotNull DatabaseSession session, @NotNull String sql, @NotNull RowMapper<T> mapper,
+                                              @Nullable Object[] args) {
+        return measuredAsync(session, true, sql, args, connection -> query(connection, sql, mapper, args));
+    }
+
+    /**
+     * Executes a query and passes every mapped row to the consumer without keeping the rows in memory<br>
+     * The rows are fetched from the server in chunks, so large result sets can be read with little memory.
+     * The connection is used until all rows are consumed, so the consumer should be fast.
+     *
+     * @param sql      sql query
+     * @param mapper   mapper of the rows
+     * @param consumer consumer of the mapped rows
+     * @param args     arguments for the query
+     * @param <T>      type of the mapped rows
+     * @return number of rows
+     * @throws SQLException if the query failed
+     */
+    public <T> long stream(@NotNull String sql, @NotNull RowMapper<T> mapper, @NotNull Consumer<? super T> consumer,
+                           @Nullable Object... args) throws SQLException {
+        return measured(sharedSession, true, sql, args, connection -> stream(connection, sql, mapper, consumer, args));
+    }
+
+    /**
+     * Executes a query asynchronously and passes every mapped row to the consumer on the database executor
+     *
+     * @param sql      sql query
+     * @param mapper   mapper of the rows
+     * @param consumer consumer of the mapped rows
+     * @param args     arguments for the query
+     * @param <T>      type of the mapped rows
+     * @return future with the number of rows
+     * @see DatabaseConnector#stream(String, RowMapper, Consumer, Object...)
+     */
+    @NotNull
+    public <T> CompletableFuture<Long> streamAsync(@NotNull String sql, @NotNull RowMapper<T> mapper, @NotNull Consumer<? super T> consumer,
+                                                   @Nullable Object... args) {
+        return measuredAsync(sharedSession, true, sql, args, connection -> stream(connection, sql, mapper, consumer, args));
+    }
+
+    /**
+     * Does the work with a pooled connection and records its latency in the query stats<br>
+     * Reads take their connection from a replica if possible, writes always from the primary and pin the session to the
+     * primary when they start and when they are done, so the write is visible to the following queries of the session.
+     *
+     * @param session session which does the work
+     * @param read    whether the work only reads, so it can be done by a replica
+     * @param sql     sql which is executed by the work
+     * @param args    arguments for the sql
+     * @param work    work to do with the connection
+     * @param <R>     result of the work
+     * @return result of the work
+     * @throws SQLException if no connection could be borrowed or the work failed
+     */
+    private <R> R measured(@NotNull DatabaseSession session, boolean read, @NotNull String sql, @Nullable Object[] args,
+                           @NotNull ConnectionFunction<R> work) throws SQLException {
+        var start = System.nanoTime();
+        var borrowed = start;
+        var success = false;
+        if (!read) {
+            session.wrote(readYourWritesNanos);
+        }
+        try (var lease = read ? borrowForRead(session) : new Lease(primary, borrow(primary))) {
+            borrowed = System.nanoTime();
+            try {
+                var result = succeeded(lease.node(), work.apply(lease.connection()));
+                success = true;
+                return result;
+            } catch (SQLException e) {
+                failed(lease.node(), e);
+                throw e;
+            }
+        } finally {
+            if (!read) {
+                session.wrote(readYourWritesNanos);
+            }
+            queryStats.record(sql, parameterCount(args), start, borrowed, System.nanoTime(), success);
         }
+    }
+
+    @NotNull
+    private <R> CompletableFuture<R> measuredAsync(@NotNull DatabaseSession session, boolean read, @NotNull String sql,
+                                                   @Nullable Object[] args, @NotNull ConnectionFunction<R> work) {
+        return async(() -> measured(session, read, sql, args, work));
+    }
 
-        if (setup.split(";").length > 1) {
-            for (var command : setup.split(";")) {
-                executeSql(command);
+    private static int parameterCount(@Nullable Object[] args) {
+        return args == null ? 0 : args.length;
+    }
+
+    @Nullable
+    private static Void execute(@NotNull Connection connection, @NotNull String sql, @Nullable Object[] args) throws SQLException {
+        try (var statement = prepare(connection, sql, args)) {
+            statement.execute();
+        }
+        return null;
+    }
+
+    @NotNull
+    private static <T> List<T> query(@NotNull Connection connection, @NotNull String sql, @NotNull RowMapper<T> mapper,
+                                     @Nullable Object[] args) throws SQLException {
+        try (var statement = prepare(connection, sql, args);
+             var resultSet = statement.executeQuery()) {
+            var rows = new ArrayList<T>();
+            while (resultSet.next()) {
+                rows.add(mapper.map(resultSet));
+            }
+            return rows;
+        }
+    }
+
+    private static <T> long stream(@NotNull Connection connection, @NotNull String sql, @NotNull RowMapper<T> mapper,
+                                   @NotNull Consumer<? super T> consumer, @Nullable Object[] args) throws SQLException {
+        try (var statement = prepare(connection, sql, args)) {
+            statement.setFetchSize(STREAM_FETCH_SIZE);
+            try (var resultSet = statement.executeQuery()) {
+                var rows = 0L;
+                while (resultSet.next()) {
+                    consumer.accept(mapper.map(resultSet));
+                    rows++;
+                }
+                return rows;
             }
+        }
+    }
+
+    /**
+     * Prepares the statement and binds the arguments to its parameters
+     *
+     * @param connection connection to prepare the statement with
+     * @param sql        sql command
+     * @param args       arguments for the parameters in their order
+     * @return prepared statement
+     * @throws SQLException if the statement could not be prepared
+     */
+    @NotNull
+    static PreparedStatement prepare(@NotNull Connection connection, @NotNull String sql, @Nullable Object[] args) throws SQLException {
+        var statement = connection.prepareStatement(sql);
+        try {
+            bind(statement, args);
+        } catch (SQLException e) {
+            statement.close();
+            throw e;
+        }
+        return statement;
+    }
+
+    /**
+     * Binds the arguments to the parameters of the statement, parameter indices start at 1
+     *
+     * @param statement statement to bind the arguments to
+     * @param args      arguments for the parameters in their order
+     * @throws SQLException if an argument could not be bound
+     */
+    static void bind(@NotNull PreparedStatement statement, @Nullable Object[] args) throws SQLException {
+        if (args == null) {
             return;
         }
+        for (var i = 0; i < args.length; i++) {
+            statement.setObject(i + 1, args[i]);
+        }
+    }
 
-        try (var connection = dataSource.getConnection();
-             var statement = connection.prepareStatement(setup)) {
-            statement.execute();
+    /**
+     * Does the work with a pooled connection asynchronously on the database executor<br>
+     * Use {@link DatabaseConnector#onMainThread(CompletableFuture)} to continue with the result on the main thread.
+     *
+     * @param work work to do with the connection
+     * @param <R>  result of the work
+     * @return future with the result or completes exceptionally with the {@link SQLException}
+     * or a {@link RejectedExecutionException} if too many queries are queued
+     */
+    @NotNull
+    public <R> CompletableFuture<R> supplyAsync(@NotNull ConnectionFunction<R> work) {
+        return async(() -> withConnection(work));
+    }
+
+    @NotNull
+    private <R> CompletableFuture<R> async(@NotNull SqlCall<R> call) {
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return call.call();
+                } catch (SQLException e) {
+                    throw new CompletionException(e);
+                }
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Returns a future which completes on the main thread when the given future completes, so dependent stages
+     * can use the Bukkit API, e.g. {@code onMainThread(supplyAsync(...)).thenAccept(player::sendMessage)}<br>
+     * The future does not complete if the plugin is disabled in the meantime.
+     *
+     * @param future future to continue on the main thread
+     * @param <T>    result of the future
+     * @return future completing on the main thread
+     */
+    @NotNull
+    public <T> CompletableFuture<T> onMainThread(@NotNull CompletableFuture<T> future) {
+        var mainThreadFuture = new CompletableFuture<T>();
+        future.whenComplete((result, throwable) -> {
+            if (!plugin.isEnabled()) {
+                return;
+            }
+            mainThreadExecutor.execute(() -> {
+                if (throwable == null) {
+                    mainThreadFuture.complete(result);
+                } else {
+                    mainThreadFuture.completeExceptionally(throwable);
+                }
+            });
+        });
+        return mainThreadFuture;
+    }
+
+    /**
+     * Executes a sql file over one connection inside a transaction, unless it was already executed with the same content<br>
+     * The file is read statement by statement, delimiters inside strings and comments are ignored and the
+     * {@code DELIMITER} command can be used for triggers and procedures. Executed files are recorded with their checksum
+     * in the table {@value SqlScriptRunner#APPLIED_SCRIPTS_TABLE}.
+     *
+     * @param file sql file which will be executed
+     */
+    public void executeSqlFile(@NotNull File file) {
+        try {
+            withConnection(connection -> {
+                try {
+                    return SqlScriptRunner.run(connection, file);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to read sql file \"%s\"".formatted(file.getName()), e.getCause());
         } catch (SQLException e) {
             plugin.getLogger().log(Level.SEVERE, "Failed to execute sql file \"%s\"".formatted(file.getName()), e);
-            plugin.getServer().getPluginManager().disablePlugin(plugin);
         }
     }
 
+    /**
+     * Flushes the queued writes, waits until the queued asynchronous queries are done and closes the connection pool,
+     * should be called when the plugin is disabled
+     *
+     * @see ConnectionPool#close()
+     */
+    public void close() {
+        probeTask.cancel();
+        batchWriter.close();
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                plugin.getLogger().warning("Dropped %d queued database queries".formatted(executor.shutdownNow().size()));
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        primary.pool().close();
+        replicas.forEach(replica -> replica.pool().close());
+    }
+
+    /**
+     * @return latency statistics of the executed statements
+     */
+    @NotNull
+    public QueryStats queryStats() {
+        return queryStats;
+    }
+
+    /**
+     * @return write-behind queue for small writes which are executed in batches
+     */
+    @NotNull
+    public BatchWriter batchWriter() {
+        return batchWriter;
+    }
+
+    /**
+     * @return number of asynchronous queries waiting for a free thread
+     */
+    public int queuedQueries() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return executor which runs tasks on the main thread
+     */
+    @NotNull
+    public Executor mainThreadExecutor() {
+        return mainThreadExecutor;
+    }
+
+    /**
+     * @return connection pool of the primary
+     */
+    @NotNull
+    public ConnectionPool pool() {
+        return primary.pool();
+    }
+
+    /**
+     * @return connection pools of the read replicas in the order they were added
+     */
+    @NotNull
+    public List<ConnectionPool> replicaPools() {
+        return replicas.stream().map(DatabaseNode::pool).toList();
+    }
+
+    /**
+     * @return data source which opens the physical connections to the primary, connections taken from it directly are not pooled
+     */
     @NotNull
     public MysqlDataSource dataSource() {
-        return dataSource;
+        return primary.dataSource();
+    }
+
+    /**
+     * Connection borrowed from a node, closing it returns the connection to the pool of the node
+     */
+    private record Lease(@NotNull DatabaseNode node, @NotNull Connection connection) implements AutoCloseable {
+
+        @Override
+        public void close() throws SQLException {
+            connection.close();
+        }
+    }
+
+    @FunctionalInterface
+    private interface SqlCall<R> {
+        R call() throws SQLException;
     }
 }
@@ -0,0 +1,20 @@
+package de.cooperr.cppluginutil.connector;
+
+/**
+ * Health of the database of a {@link DatabaseConnector}
+ */
+public enum DatabaseHealth {
+
+    /**
+     * The database was not checked yet
+     */
+    UNKNOWN,
+    /**
+     * The database can be reached
+     */
+    AVAILABLE,
+    /**
+     * The database cannot be reached, queries fail immediately until a background probe reaches it again
+     */
+    UNAVAILABLE
+}
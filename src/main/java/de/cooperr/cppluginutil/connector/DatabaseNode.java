@@ -0,0 +1,60 @@
+package de.cooperr.cppluginutil.connector;
+
+import com.mysql.cj.jdbc.MysqlDataSource;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Database server of a connector, either the primary or a read replica, with its own pool and circuit breaker
+ */
+final class DatabaseNode {
+
+    private final String name;
+    private final MysqlDataSource dataSource;
+    private final ConnectionPool pool;
+    private final CircuitBreaker circuitBreaker;
+
+    private volatile DatabaseHealth health = DatabaseHealth.UNKNOWN;
+
+    DatabaseNode(@NotNull String name, @NotNull MysqlDataSource dataSource, @NotNull ConnectionPool pool, int failureThreshold) {
+        this.name = name;
+        this.dataSource = dataSource;
+        this.pool = pool;
+        this.circuitBreaker = new CircuitBreaker(failureThreshold);
+    }
+
+    /**
+     * @param health new health of the node
+     * @return previous health of the node
+     */
+    @NotNull
+    DatabaseHealth health(@NotNull DatabaseHealth health) {
+        var previous = this.health;
+        this.health = health;
+        return previous;
+    }
+
+    @NotNull
+    DatabaseHealth health() {
+        return health;
+    }
+
+    @NotNull
+    String name() {
+        return name;
+    }
+
+    @NotNull
+    MysqlDataSource dataSource() {
+        return dataSource;
+    }
+
+    @NotNull
+    ConnectionPool pool() {
+        return pool;
+    }
+
+    @NotNull
+    CircuitBreaker circuitBreaker() {
+        return circuitBreaker;
+    }
+}
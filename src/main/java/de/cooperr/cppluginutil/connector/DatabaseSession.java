@@ -0,0 +1,99 @@
+package de.cooperr.cppluginutil.connector;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Session of a database connector which reads its own writes<br>
+ * Reads of the session are sent to the read replicas, except during the read-your-writes window after a write of
+ * the session, then they are sent to the primary, so they see the write even if the replicas lag behind.
+ * Use one session per independent writer, e.g. per player.
+ *
+ * @see DatabaseConnector#session()
+ */
+public class DatabaseSession {
+
+    private final DatabaseConnector connector;
+    private final boolean readYourWrites;
+
+    private volatile long pinnedUntilNanos = System.nanoTime();
+
+    /**
+     * @param connector      connector which executes the statements
+     * @param readYourWrites whether reads should be sent to the primary after a write
+     */
+    DatabaseSession(@NotNull DatabaseConnector connector, boolean readYourWrites) {
+        this.connector = connector;
+        this.readYourWrites = readYourWrites;
+    }
+
+    /**
+     * Pins the session to the primary for the read-your-writes window
+     *
+     * @param windowNanos read-your-writes window in nanoseconds
+     */
+    void wrote(long windowNanos) {
+        pinUntil(System.nanoTime() + windowNanos);
+    }
+
+    /**
+     * Pins the session to the primary until the given time, e.g. for a write which was acknowledged elsewhere
+     *
+     * @param nanos {@link System#nanoTime()} until which reads are sent to the primary
+     */
+    synchronized void pinUntil(long nanos) {
+        if (readYourWrites && nanos - pinnedUntilNanos > 0) {
+            pinnedUntilNanos = nanos;
+        }
+    }
+
+    /**
+     * @return whether reads of this session are currently sent to the primary
+     */
+    public boolean pinned() {
+        return readYourWrites && System.nanoTime() - pinnedUntilNanos < 0;
+    }
+
+    /**
+     * @see DatabaseConnector#executeSql(String, Object...)
+     */
+    public void executeSql(@NotNull String sql, @Nullable Object... args) {
+        connector.executeSql(this, sql, args);
+    }
+
+    /**
+     * @see DatabaseConnector#executeSqlAsync(String, Object...)
+     */
+    @NotNull
+    public CompletableFuture<Void> executeSqlAsync(@NotNull String sql, @Nullable Object... args) {
+        return connector.executeSqlAsync(this, sql, args);
+    }
+
+    /**
+     * @see DatabaseConnector#query(String, RowMapper, Object...)
+     */
+    @NotNull
+    public <T> List<T> query(@NotNull String sql, @NotNull RowMapper<T> mapper, @Nullable Object... args) throws SQLException {
+        return connector.query(this, sql, mapper, args);
+    }
+
+    /**
+     * @see DatabaseConnector#queryFirst(String, RowMapper, Object...)
+     */
+    @Nullable
+    public <T> T queryFirst(@NotNull String sql, @NotNull RowMapper<T> mapper, @Nullable Object... args) throws SQLException {
+        return connector.queryFirst(this, sql, mapper, args);
+    }
+
+    /**
+     * @see DatabaseConnector#queryAsync(String, RowMapper, Object...)
+     */
+    @NotNull
+    public <T> CompletableFuture<List<T>> queryAsync(@NotNull String sql, @NotNull RowMapper<T> mapper, @Nullable Object... args) {
+        return connector.queryAsync(this, sql, mapper, args);
+    }
+}
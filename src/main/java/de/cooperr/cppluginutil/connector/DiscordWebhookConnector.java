@@ -3,62 +3,405 @@ package de.cooperr.cppluginutil.connector;
 import de.cooperr.cppluginutil.base.PaperPlugin;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.*;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
 
 /**
- * Connects Java with Discord Webhooks
+ * Connects Java with Discord Webhooks<br>
+ * Messages are queued and sent by a single sender thread over one reused http client, the connector registers itself
+ * to the plugin and is closed when the plugin is disabled. Messages which are queued within a short window are combined
+ * into one message, and the rate limits which Discord announces in its response headers are followed. Messages sent
+ * while the queue is full are dropped.<br>
+ * Optionally messages are spooled to the data folder instead of being queued in memory. Spooled messages are sent in
+ * order and kept until Discord accepted them, with exponential backoff while it cannot be reached, so they survive
+ * outages and restarts.
  */
 public class DiscordWebhookConnector {
 
+    private static final int QUEUE_CAPACITY = 1000;
+    private static final int MAX_CONTENT_LENGTH = 2000; // limit of Discord for the content of one message
+    private static final long COALESCE_WINDOW_MILLIS = 250;
+    private static final long POLL_TIMEOUT_MILLIS = 500;
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long BACKOFF_MILLIS = 1000;
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(15);
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 5000;
+    private static final String SPOOL_DIRECTORY = "discord-spool";
+    private static final int MAX_SPOOL_SEGMENTS = 64;
+    private static final int MAX_COALESCED_MESSAGES = 100;
+    private static final long MAX_SPOOL_BACKOFF_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
     private final PaperPlugin plugin;
 
     private URL webhookUrl;
+    private final HttpClient client;
+    private final BlockingQueue<String> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicInteger dropped = new AtomicInteger();
+    private final Thread sender;
+    private final SpoolLog spool;
+
+    private volatile boolean closed;
+
+    // only accessed by the sender thread
+    private String carry;
+    private int bucketRemaining = 1;
+    private long bucketResetNanos;
 
     /**
-     * Tests the url connection
+     * Parses the url and starts the sender thread, messages are queued in memory<br>
+     * The connector is closed by {@link PaperPlugin#onDisable()}.
      *
      * @param plugin     plugin to which this connector should belong
      * @param webhookUrl url to the Discord Webhook
      */
     public DiscordWebhookConnector(@NotNull PaperPlugin plugin, @NotNull String webhookUrl) {
+        this(plugin, webhookUrl, false);
+    }
+
+    /**
+     * Parses the url, opens the spool and starts the sender thread<br>
+     * The connector is closed by {@link PaperPlugin#onDisable()}, so its thread and spool do not outlive a reload.
+     *
+     * @param plugin     plugin to which this connector should belong
+     * @param webhookUrl url to the Discord Webhook
+     * @param spool      whether messages should be spooled to the data folder until they are delivered,
+     *                   falls back to the memory queue if the spool could not be opened
+     */
+    public DiscordWebhookConnector(@NotNull PaperPlugin plugin, @NotNull String webhookUrl, boolean spool) {
         this.plugin = plugin;
         try {
             this.webhookUrl = new URI(webhookUrl).toURL();
-        } catch (URISyntaxException | MalformedURLException e) {
+        } catch (URISyntaxException | MalformedURLException | IllegalArgumentException e) {
             this.webhookUrl = null;
-            plugin.getLogger().log(Level.SEVERE, "Failed to connect to Discord Webhook", e);
+            plugin.getLogger().log(Level.SEVERE, "Invalid Discord Webhook url", e);
+        }
+
+        SpoolLog openedSpool = null;
+        if (spool && this.webhookUrl != null) {
+            var directory = new File(new File(plugin.getDataFolder(), SPOOL_DIRECTORY), // one spool per webhook
+                    HexFormat.of().toHexDigits(webhookUrl.hashCode()));
+            try {
+                openedSpool = new SpoolLog(directory.toPath(), MAX_SPOOL_SEGMENTS);
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.SEVERE, "Failed to open Discord Webhook spool \"%s\"".formatted(directory.getPath()), e);
+            }
         }
+
+        this.spool = openedSpool;
+
+        client = HttpClient.newBuilder().connectTimeout(CONNECT_TIMEOUT).build();
+        sender = new Thread(this.spool == null ? this::run : this::runSpooled, "%s-discord-webhook".formatted(plugin.getName()));
+        sender.setDaemon(true);
+        if (this.webhookUrl != null) {
+            sender.start();
+        }
+        plugin.registerWebhookConnector(this);
     }
 
     /**
-     * Sends a specific message to the Discord Webhook
+     * Queues a specific message for the Discord Webhook, can be called from any thread<br>
+     * Messages longer than the limit of Discord are truncated.
      *
      * @param message message to send
      */
     public void send(@NotNull String message) {
-        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> {
+        if (webhookUrl == null || closed) {
+            return;
+        }
+        if (message.length() > MAX_CONTENT_LENGTH) {
+            message = message.substring(0, MAX_CONTENT_LENGTH - 3) + "...";
+        }
+        if (spool != null) {
             try {
-                var connection = (HttpURLConnection) webhookUrl.openConnection();
-                var payload = "{\"content\":\"" + message + "\"}";
-
-                connection.setRequestMethod("POST");
-                connection.setRequestProperty("Content-Type", "application/json");
-                connection.setDoOutput(true);
+                spool.append(message.getBytes(StandardCharsets.UTF_8));
+                LockSupport.unpark(sender);
+            } catch (IOException e) {
+                dropped.incrementAndGet();
+            }
+            return;
+        }
+        if (!queue.offer(message)) {
+            dropped.incrementAndGet(); // logged by the sender, so a full queue does not flood the log
+        }
+    }
 
-                try (var outputStream = connection.getOutputStream()) {
-                    var input = payload.getBytes(StandardCharsets.UTF_8);
-                    outputStream.write(input, 0, input.length);
-                    outputStream.flush();
+    private void run() {
+        while (!closed || carry != null || !queue.isEmpty()) {
+            try {
+                var first = carry != null ? carry : queue.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                carry = null;
+                if (first == null) {
+                    continue;
                 }
-                connection.getInputStream(); // this needs to be done in order to complete the request-response cycle
-                connection.disconnect();
+                deliver(payload(coalesce(first)));
             } catch (IOException e) {
                 plugin.getLogger().log(Level.SEVERE, "Failed to send message to Discord Webhook", e);
+            } catch (InterruptedException e) {
+                return;
+            }
+            logDropped();
+        }
+    }
+
+    /**
+     * Sends the spooled messages in order until the connector is closed, the messages are removed from the spool once
+     * Discord accepted or rejected them, closes the spool once the sender stops
+     */
+    private void runSpooled() {
+        try {
+            sendSpooled();
+        } finally { // closed by the sender, so the spool is never used after its lock was released
+            try {
+                spool.close();
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.SEVERE, "Failed to close Discord Webhook spool", e);
+            }
+        }
+    }
+
+    private void sendSpooled() {
+        var failures = 0;
+        while (!closed) {
+            try {
+                if (spool.isEmpty()) {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(POLL_TIMEOUT_MILLIS));
+                    continue;
+                }
+                TimeUnit.MILLISECONDS.sleep(COALESCE_WINDOW_MILLIS);
+
+                var content = new StringBuilder();
+                var count = 0;
+                for (var record : spool.peek(MAX_COALESCED_MESSAGES)) {
+                    var message = new String(record, StandardCharsets.UTF_8);
+                    if (count > 0 && content.length() + 1 + message.length() > MAX_CONTENT_LENGTH) {
+                        break;
+                    }
+                    content.append(count++ > 0 ? "\n" : "").append(message);
+                }
+
+                boolean done;
+                try {
+                    done = deliver(payload(content.toString()));
+                } catch (IOException e) {
+                    if (failures == 0) { // the outage is logged once
+                        plugin.getLogger().log(Level.SEVERE, "Failed to send message to Discord Webhook, it stays in the spool", e);
+                    }
+                    done = false;
+                }
+                if (!done) {
+                    backoff(Math.min(backoffMillis(Math.min(++failures, 20)), MAX_SPOOL_BACKOFF_MILLIS));
+                    continue;
+                }
+                if (failures > 0) {
+                    plugin.getLogger().info("Discord Webhook can be reached again");
+                    failures = 0;
+                }
+                spool.acknowledge(count);
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.SEVERE, "Failed to read Discord Webhook spool", e);
+                backoff(MAX_SPOOL_BACKOFF_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            logDropped();
+        }
+    }
+
+    /**
+     * Waits until the backoff elapsed or the connector is closed<br>
+     * Parked instead of sleeping, so closing the connector does not wait for the backoff. Every spooled message unparks
+     * the sender, so it parks again until the deadline.
+     *
+     * @param millis duration of the backoff
+     */
+    private void backoff(long millis) {
+        var deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        long remaining;
+        while (!closed && !Thread.currentThread().isInterrupted() && (remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    private void logDropped() {
+        var droppedMessages = dropped.getAndSet(0);
+        if (droppedMessages > 0) {
+            plugin.getLogger().warning("Dropped %d Discord Webhook messages because too many messages are queued".formatted(droppedMessages));
+        }
+    }
+
+    /**
+     * Combines the message with the messages queued within the coalesce window, as long as they fit into one message
+     *
+     * @param first first message
+     * @return combined content, one message per line
+     * @throws InterruptedException if the sender was interrupted
+     */
+    @NotNull
+    private String coalesce(@NotNull String first) throws InterruptedException {
+        var content = new StringBuilder(first);
+        var deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(COALESCE_WINDOW_MILLIS);
+        while (true) {
+            var next = closed ? queue.poll() : queue.poll(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return content.toString();
+            }
+            if (content.length() + 1 + next.length() > MAX_CONTENT_LENGTH) {
+                carry = next;
+                return content.toString();
+            }
+            content.append('\n').append(next);
+        }
+    }
+
+    /**
+     * Posts the payload, retries after rate limits and server errors
+     *
+     * @param payload json payload
+     * @return whether the payload was accepted or rejected for good, false if it can be retried later
+     * @throws IOException          if Discord could not be reached
+     * @throws InterruptedException if the sender was interrupted while it waited
+     */
+    private boolean deliver(@NotNull String payload) throws IOException, InterruptedException {
+        var request = HttpRequest.newBuilder(URI.create(webhookUrl.toString()))
+                .timeout(REQUEST_TIMEOUT)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(payload))
+                .build();
+
+        for (var attempt = 1; ; attempt++) {
+            var wait = bucketResetNanos - System.nanoTime();
+            if (bucketRemaining <= 0 && wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+
+            var response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            updateBucket(response.headers());
+
+            var status = response.statusCode();
+            if (status / 100 == 2) {
+                return true;
+            }
+            var retryable = status == 429 || status / 100 == 5;
+            if (retryable && attempt < MAX_ATTEMPTS) {
+                TimeUnit.MILLISECONDS.sleep(status == 429 ? retryAfterMillis(response.headers(), attempt) : backoffMillis(attempt));
+                continue;
+            }
+            plugin.getLogger().warning("Discord Webhook rejected message with status %d: %s".formatted(status, response.body()));
+            return !retryable;
+        }
+    }
+
+    private void updateBucket(@NotNull HttpHeaders headers) {
+        var remaining = headers.firstValue("X-RateLimit-Remaining");
+        var resetAfter = headers.firstValue("X-RateLimit-Reset-After");
+        if (remaining.isEmpty() || resetAfter.isEmpty()) {
+            return;
+        }
+        try {
+            bucketRemaining = Integer.parseInt(remaining.get());
+            bucketResetNanos = System.nanoTime() + (long) (Double.parseDouble(resetAfter.get()) * 1_000_000_000L);
+        } catch (NumberFormatException e) {
+            bucketRemaining = 1; // unknown bucket, the next 429 tells how long to wait
+        }
+    }
+
+    private static long retryAfterMillis(@NotNull HttpHeaders headers, int attempt) {
+        var retryAfter = headers.firstValue("Retry-After");
+        if (retryAfter.isPresent()) {
+            try {
+                return (long) Math.ceil(Double.parseDouble(retryAfter.get()) * 1000);
+            } catch (NumberFormatException ignored) {
             }
-        });
+        }
+        return backoffMillis(attempt);
+    }
+
+    private static long backoffMillis(int attempt) {
+        return BACKOFF_MILLIS << (attempt - 1);
+    }
+
+    @NotNull
+    private static String payload(@NotNull String content) {
+        var json = new StringBuilder(content.length() + 16).append("{\"content\":\"");
+        for (var i = 0; i < content.length(); i++) {
+            var character = content.charAt(i);
+            switch (character) {
+                case '"' -> json.append("\\\"");
+                case '\\' -> json.append("\\\\");
+                case '\n' -> json.append("\\n");
+                case '\r' -> json.append("\\r");
+                case '\t' -> json.append("\\t");
+                default -> {
+                    if (character < 0x20) {
+                        json.append("\\u%04x".formatted((int) character));
+                    } else {
+                        json.append(character);
+                    }
+                }
+            }
+        }
+        return json.append("\"}").toString();
+    }
+
+    /**
+     * Sends the queued messages for up to a few seconds and stops the sender thread, called when the plugin is disabled<br>
+     * Spooled messages which were not sent yet are sent after the next start. Closing the connector again has no effect.
+     */
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(sender);
+        try {
+            sender.join(SHUTDOWN_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!sender.isAlive()) {
+            return;
+        }
+        sender.interrupt();
+        if (spool == null) {
+            plugin.getLogger().warning("Dropped %d queued Discord Webhook messages".formatted(queue.size()));
+        }
+        try {
+            sender.join(SHUTDOWN_TIMEOUT_MILLIS); // the spool is closed by the sender once it stopped
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (sender.isAlive()) {
+            plugin.getLogger().warning("Discord Webhook sender did not stop, its spool is closed once it stops");
+        }
+    }
+
+    /**
+     * @return whether messages are spooled to the data folder until they are delivered
+     */
+    public boolean spooled() {
+        return spool != null;
+    }
+
+    /**
+     * @return number of messages waiting to be sent in memory, spooled messages are not counted
+     */
+    public int queued() {
+        return queue.size();
     }
 
     @NotNull
@@ -0,0 +1,81 @@
+package de.cooperr.cppluginutil.connector;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with power-of-two buckets in microseconds<br>
+ * Recording is a few atomic increments, percentiles are estimated by the upper bound of their bucket.
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS = 32; // the last bucket holds everything from 2^30 µs, ~18 minutes
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    LatencyHistogram() {
+    }
+
+    /**
+     * @param nanos latency in nanoseconds
+     */
+    void record(long nanos) {
+        var micros = Math.max(TimeUnit.NANOSECONDS.toMicros(nanos), 0);
+        buckets.incrementAndGet(Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKETS - 1));
+        count.increment();
+        totalNanos.add(nanos);
+        if (nanos > maxNanos.get()) {
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+    }
+
+    /**
+     * Estimates the latency below which the given share of all recorded latencies lies
+     *
+     * @param percentile share between 0 and 1, e.g. 0.99
+     * @return estimated latency in milliseconds
+     */
+    public double percentileMillis(double percentile) {
+        var total = 0L;
+        var counts = new long[BUCKETS];
+        for (var i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        var rank = (long) Math.ceil(percentile * total);
+        var seen = 0L;
+        for (var i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(1L << i, TimeUnit.NANOSECONDS.toMicros(maxNanos.get())) / 1000d; // upper bound of the bucket
+            }
+        }
+        return maxMillis();
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public double averageMillis() {
+        var count = count();
+        return count == 0 ? 0 : totalNanos.sum() / (double) count / 1_000_000d;
+    }
+
+    public double totalMillis() {
+        return totalNanos.sum() / 1_000_000d;
+    }
+
+    public double maxMillis() {
+        return maxNanos.get() / 1_000_000d;
+    }
+}
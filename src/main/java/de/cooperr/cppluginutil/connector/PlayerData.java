@@ -0,0 +1,127 @@
+package de.cooperr.cppluginutil.connector;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Pattern;
+
+/**
+ * Cached row of a player, read from memory and written back in batches by the {@link PlayerSessionStore}<br>
+ * Values are accessed by their column name, changed columns are tracked until they are written back.
+ * The data can be used from any thread.
+ */
+public class PlayerData {
+
+    static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z0-9_]+");
+
+    private final UUID uuid;
+    private final Map<String, Object> values;
+    private final Map<String, Object> dirty = new LinkedHashMap<>();
+
+    volatile boolean online;
+    volatile long offlineSinceNanos = System.nanoTime();
+    volatile CompletableFuture<?> lastWrite = CompletableFuture.completedFuture(null);
+
+    PlayerData(@NotNull UUID uuid, @NotNull Map<String, Object> values) {
+        this.uuid = uuid;
+        this.values = new HashMap<>(values);
+    }
+
+    /**
+     * @param column column name
+     * @return value of the column or null if the column is null or does not exist
+     */
+    @Nullable
+    public synchronized Object get(@NotNull String column) {
+        return values.get(column);
+    }
+
+    public int getInt(@NotNull String column) {
+        return get(column) instanceof Number number ? number.intValue() : 0;
+    }
+
+    public long getLong(@NotNull String column) {
+        return get(column) instanceof Number number ? number.longValue() : 0;
+    }
+
+    public double getDouble(@NotNull String column) {
+        return get(column) instanceof Number number ? number.doubleValue() : 0;
+    }
+
+    /**
+     * @param column column name
+     * @return value of the column, numbers are true if they are not zero
+     */
+    public boolean getBoolean(@NotNull String column) {
+        var value = get(column);
+        return value instanceof Boolean bool ? bool : value instanceof Number number && number.longValue() != 0;
+    }
+
+    @Nullable
+    public String getString(@NotNull String column) {
+        var value = get(column);
+        return value == null ? null : value.toString();
+    }
+
+    /**
+     * Changes the value of a column, the change is written back with the next batch
+     *
+     * @param column column name, only letters, digits and underscores
+     * @param value  new value of the column
+     */
+    public synchronized void set(@NotNull String column, @Nullable Object value) {
+        if (!IDENTIFIER.matcher(column).matches()) {
+            throw new IllegalArgumentException("Invalid column name \"%s\"".formatted(column));
+        }
+        values.put(column, value);
+        dirty.put(column, value);
+    }
+
+    /**
+     * Takes the changed columns, they are not tracked as changed anymore
+     *
+     * @return changed columns with their values in the order they were changed first
+     */
+    @NotNull
+    synchronized Map<String, Object> drainDirty() {
+        if (dirty.isEmpty()) {
+            return Map.of();
+        }
+        var drained = new LinkedHashMap<>(dirty);
+        dirty.clear();
+        return drained;
+    }
+
+    /**
+     * Tracks the columns as changed again after their write failed, unless they were changed in the meantime
+     *
+     * @param columns columns of the failed write
+     */
+    synchronized void restoreDirty(@NotNull Set<String> columns) {
+        for (var column : columns) {
+            dirty.putIfAbsent(column, values.get(column));
+        }
+    }
+
+    synchronized boolean dirty() {
+        return !dirty.isEmpty();
+    }
+
+    @NotNull
+    public UUID uuid() {
+        return uuid;
+    }
+
+    /**
+     * @return whether the player is online on this server
+     */
+    public boolean online() {
+        return online;
+    }
+}
@@ -0,0 +1,316 @@
+package de.cooperr.cppluginutil.connector;
+
+import de.cooperr.cppluginutil.base.PaperPlugin;
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.format.NamedTextColor;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.scheduler.BukkitTask;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+
+/**
+ * Cache of the rows of the online players of one table, so listeners on the main thread never wait for the database<br>
+ * The row of a player is loaded while the player logs in, which happens asynchronously, and is kept in memory while
+ * the player is online. Changed columns are written back periodically through the {@link BatchWriter} of the connector
+ * and when the player quits. The row stays cached for a grace period after the quit, so quick reconnects do not load it again,
+ * and until its last write was committed, so it is never loaded while a write of it is still pending.<br>
+ * The table needs a primary key column which holds the uuid of the player as string. Changes to data which was evicted
+ * from the cache are not written back, so data of offline players should not be kept.
+ */
+public class PlayerSessionStore implements Listener {
+
+    private static final long WRITE_BACK_INTERVAL_TICKS = 20 * 10;
+    private static final Duration DEFAULT_GRACE_PERIOD = Duration.ofSeconds(30);
+    private static final RowMapper<Map<String, Object>> COLUMN_MAPPER = resultSet -> {
+        var metaData = resultSet.getMetaData();
+        var values = new HashMap<String, Object>();
+        for (var i = 1; i <= metaData.getColumnCount(); i++) {
+            values.put(metaData.getColumnLabel(i), resultSet.getObject(i));
+        }
+        return values;
+    };
+
+    private final PaperPlugin plugin;
+    private final DatabaseConnector connector;
+    private final String table;
+    private final String keyColumn;
+    private final String selectSql;
+
+    private final Map<UUID, PlayerData> cache = new ConcurrentHashMap<>();
+    private final Map<UUID, Long> acknowledgedWrites = new ConcurrentHashMap<>();
+    private final Map<String, String> upsertSql = new ConcurrentHashMap<>();
+    private final BukkitTask writeBackTask;
+
+    private volatile long gracePeriodNanos = DEFAULT_GRACE_PERIOD.toNanos();
+
+    /**
+     * Creates the store and registers its listeners to the plugin, should be created on the main thread
+     *
+     * @param plugin    plugin to which the store should belong
+     * @param connector connector which loads and writes the rows
+     * @param table     table which holds one row per player
+     * @param keyColumn primary key column of the table which holds the uuid of the player
+     */
+    public PlayerSessionStore(@NotNull PaperPlugin plugin, @NotNull DatabaseConnector connector, @NotNull String table,
+                              @NotNull String keyColumn) {
+        if (!PlayerData.IDENTIFIER.matcher(table).matches() || !PlayerData.IDENTIFIER.matcher(keyColumn).matches()) {
+            throw new IllegalArgumentException("Invalid table \"%s\" or key column \"%s\"".formatted(table, keyColumn));
+        }
+        this.plugin = plugin;
+        this.connector = connector;
+        this.table = table;
+        this.keyColumn = keyColumn;
+
+        selectSql = "SELECT * FROM %s WHERE %s = ?".formatted(table, keyColumn);
+        writeBackTask = plugin.getServer().getScheduler().runTaskTimerAsynchronously(plugin, this::writeBack,
+                WRITE_BACK_INTERVAL_TICKS, WRITE_BACK_INTERVAL_TICKS);
+        plugin.getServer().getPluginManager().registerEvents(this, plugin);
+    }
+
+    @EventHandler(priority = EventPriority.HIGHEST)
+    public void onAsyncPlayerPreLogin(@NotNull AsyncPlayerPreLoginEvent event) {
+        if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+            return;
+        }
+        try {
+            load(event.getUniqueId());
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to load data of player \"%s\"".formatted(event.getName()), e);
+            event.disallow(AsyncPlayerPreLoginEvent.Result.KICK_OTHER,
+                    Component.text("Your data could not be loaded, please try again later", NamedTextColor.RED));
+        }
+    }
+
+    @EventHandler(priority = EventPriority.LOWEST)
+    public void onPlayerJoin(@NotNull PlayerJoinEvent event) {
+        var data = cache.get(event.getPlayer().getUniqueId());
+        if (data != null) {
+            data.online = true;
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(@NotNull PlayerQuitEvent event) {
+        var data = cache.get(event.getPlayer().getUniqueId());
+        if (data == null) {
+            return;
+        }
+        data.online = false;
+        data.offlineSinceNanos = System.nanoTime();
+        if (queueChanges(data)) {
+            connector.batchWriter().flush()
+                    .exceptionally(throwable -> null); // failed writes are queued again and logged by the batch writer
+        }
+    }
+
+    /**
+     * Loads the data of the player synchronously, unless it is cached
+     *
+     * @param uuid uuid of the player
+     * @return cached or loaded data, empty if the player has no row yet
+     * @throws SQLException if the row could not be loaded
+     */
+    @NotNull
+    private PlayerData load(@NotNull UUID uuid) throws SQLException {
+        var data = cache.get(uuid);
+        if (data != null) {
+            data.offlineSinceNanos = System.nanoTime(); // restarts the grace period, so it is not evicted while the player joins
+            return data;
+        }
+        return cache(uuid, connector.queryFirst(loadSession(uuid), selectSql, COLUMN_MAPPER, new Object[]{uuid.toString()}));
+    }
+
+    /**
+     * Creates the session which loads the row of the player, it reads from the primary during the read-your-writes window
+     * after the last write of the player was acknowledged, so the row is not read from a replica which lags behind
+     *
+     * @param uuid uuid of the player
+     * @return session for the query
+     */
+    @NotNull
+    private DatabaseSession loadSession(@NotNull UUID uuid) {
+        var session = connector.session();
+        var acknowledged = acknowledgedWrites.get(uuid);
+        if (acknowledged != null) {
+            session.pinUntil(acknowledged + connector.readYourWritesWindow().toNanos());
+        }
+        return session;
+    }
+
+    /**
+     * Caches the loaded row, unless the data of the player was cached in the meantime
+     *
+     * @param uuid uuid of the player
+     * @param row  loaded row or null if the player has no row yet
+     * @return cached data
+     */
+    @NotNull
+    private PlayerData cache(@NotNull UUID uuid, @Nullable Map<String, Object> row) {
+        var loaded = new PlayerData(uuid, row == null ? Map.of() : row);
+        var data = cache.putIfAbsent(uuid, loaded);
+        return data == null ? loaded : data;
+    }
+
+    /**
+     * Gets the data of a player from the cache, it is cached while the player is online
+     *
+     * @param player player whose data should be returned
+     * @return cached data
+     */
+    @NotNull
+    public PlayerData data(@NotNull Player player) {
+        var data = cache.get(player.getUniqueId());
+        if (data == null) {
+            throw new IllegalStateException("Data of player \"%s\" is not loaded".formatted(player.getName()));
+        }
+        return data;
+    }
+
+    /**
+     * @param uuid uuid of the player
+     * @return cached data or null if the data of the player is not cached
+     */
+    @Nullable
+    public PlayerData cached(@NotNull UUID uuid) {
+        return cache.get(uuid);
+    }
+
+    /**
+     * Gets the data of a player from the cache or loads it asynchronously, e.g. for offline players<br>
+     * Data of offline players is evicted after the grace period, so it should be used right away.
+     *
+     * @param uuid uuid of the player
+     * @return future with the data
+     */
+    @NotNull
+    public CompletableFuture<PlayerData> loadAsync(@NotNull UUID uuid) {
+        var data = cache.get(uuid);
+        if (data != null) {
+            return CompletableFuture.completedFuture(data);
+        }
+        // the query borrows its own connection, so the lookup must not hold another one
+        return connector.queryAsync(loadSession(uuid), selectSql, COLUMN_MAPPER, new Object[]{uuid.toString()})
+                .thenApply(rows -> cache(uuid, rows.isEmpty() ? null : rows.get(0)));
+    }
+
+    /**
+     * Queues the changed columns of all cached players and evicts offline players after the grace period,
+     * once their last write was acknowledged
+     */
+    private void writeBack() {
+        for (var data : cache.values()) {
+            queueChanges(data);
+        }
+
+        var now = System.nanoTime();
+        for (var data : cache.values()) {
+            if (data.online || now - data.offlineSinceNanos < gracePeriodNanos) {
+                continue;
+            }
+            synchronized (data) { // a failed write marks its columns as changed again before its future completes
+                if (!data.dirty() && data.lastWrite.isDone() && !data.online &&
+                        System.nanoTime() - data.offlineSinceNanos >= gracePeriodNanos) {
+                    cache.remove(data.uuid(), data);
+                }
+            }
+        }
+
+        var window = connector.readYourWritesWindow().toNanos();
+        acknowledgedWrites.values().removeIf(acknowledged -> now - acknowledged >= window);
+    }
+
+    /**
+     * Queues the changed columns of the player as upsert
+     *
+     * @param data data of the player
+     * @return whether there were changes
+     */
+    private boolean queueChanges(@NotNull PlayerData data) {
+        synchronized (data) { // the data must not be evicted between draining the changes and tracking their write
+            var changes = data.drainDirty();
+            if (changes.isEmpty()) {
+                return false;
+            }
+            data.lastWrite = queueUpsert(data, changes).whenComplete((result, throwable) -> {
+                if (throwable == null) {
+                    acknowledgedWrites.put(data.uuid(), System.nanoTime());
+                } else {
+                    data.restoreDirty(changes.keySet()); // written again with the next write-back
+                }
+            });
+            return true;
+        }
+    }
+
+    @NotNull
+    private CompletableFuture<Void> queueUpsert(@NotNull PlayerData data, @NotNull Map<String, Object> changes) {
+        var columns = String.join(", ", changes.keySet());
+        var sql = upsertSql.computeIfAbsent(columns, key -> "INSERT INTO %s (%s, %s) VALUES (?%s) ON DUPLICATE KEY UPDATE %s".formatted(
+                table, keyColumn, columns, ", ?".repeat(changes.size()),
+                changes.keySet().stream().map(column -> "%s = VALUES(%s)".formatted(column, column)).collect(Collectors.joining(", "))));
+
+        var args = new Object[changes.size() + 1];
+        args[0] = data.uuid().toString();
+        var i = 1;
+        for (var value : changes.values()) {
+            args[i++] = value;
+        }
+        return connector.batchWriter().queueUpsert(sql, data.uuid(), args);
+    }
+
+    /**
+     * Writes all changes synchronously and stops writing back periodically, should be called when the plugin is disabled
+     * and before the connector is closed
+     */
+    public void close() {
+        writeBackTask.cancel();
+        cache.values().forEach(this::queueChanges);
+        var requested = System.nanoTime();
+        try {
+            connector.withConnection(connection -> {
+                connector.batchWriter().flush(connection, requested);
+                return null;
+            });
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to write data of %d players".formatted(cache.size()), e);
+        }
+    }
+
+    /**
+     * @return number of cached players including offline players within the grace period
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * @return duration for which the data of a player stays cached after the player quit
+     */
+    @NotNull
+    public Duration gracePeriod() {
+        return Duration.ofNanos(gracePeriodNanos);
+    }
+
+    /**
+     * @param gracePeriod duration for which the data of a player stays cached after the player quit
+     */
+    public void gracePeriod(@NotNull Duration gracePeriod) {
+        this.gracePeriodNanos = gracePeriod.toNanos();
+    }
+}
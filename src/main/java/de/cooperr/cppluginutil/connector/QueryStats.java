@@ -0,0 +1,183 @@
+package de.cooperr.cppluginutil.connector;
+
+import de.cooperr.cppluginutil.base.PaperPlugin;
+import org.jetbrains.annotations.NotNull;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Latency statistics of the statements of a database connector grouped by the shape of their sql<br>
+ * The shape is the sql with literals replaced by {@code ?} and collapsed whitespace, so statements which only differ
+ * in their values are grouped together. Recording a statement only costs a map lookup and a few atomic increments.
+ * Statements slower than the slow query threshold are logged with the number of their parameters, but never with their values.
+ */
+public class QueryStats {
+
+    private static final int MAX_CACHED_SQL = 10_000;
+    private static final int MAX_SHAPE_LENGTH = 500;
+    private static final Pattern LITERALS = Pattern.compile("'(?:[^'\\\\]|\\\\.|'')*'|\"(?:[^\"\\\\]|\\\\.|\"\")*\"|\\b\\d+(?:\\.\\d+)?\\b");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final PaperPlugin plugin;
+
+    private final ConcurrentHashMap<String, Shape> shapes = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Shape> shapesBySql = new ConcurrentHashMap<>();
+    private volatile long slowQueryNanos = TimeUnit.MILLISECONDS.toNanos(250);
+
+    QueryStats(@NotNull PaperPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Records an executed statement
+     *
+     * @param sql            sql of the statement
+     * @param parameterCount number of bound parameters
+     * @param startNanos     time at which the connection was requested
+     * @param borrowedNanos  time at which the connection was borrowed
+     * @param endNanos       time at which the statement was done
+     * @param success        whether the statement succeeded
+     */
+    void record(@NotNull String sql, int parameterCount, long startNanos, long borrowedNanos, long endNanos, boolean success) {
+        var shape = shape(sql);
+        shape.calls.increment();
+        if (!success) {
+            shape.errors.increment();
+        }
+        shape.borrow.record(borrowedNanos - startNanos);
+        shape.execute.record(endNanos - borrowedNanos);
+        shape.total.record(endNanos - startNanos);
+
+        var threshold = slowQueryNanos;
+        if (threshold > 0 && endNanos - startNanos >= threshold) {
+            plugin.getLogger().warning("Slow query took %d ms (borrow %d ms, %d parameters): %s".formatted(
+                    TimeUnit.NANOSECONDS.toMillis(endNanos - startNanos), TimeUnit.NANOSECONDS.toMillis(borrowedNanos - startNanos),
+                    parameterCount, shape.sql()));
+        }
+    }
+
+    @NotNull
+    private Shape shape(@NotNull String sql) {
+        var shape = shapesBySql.get(sql);
+        if (shape != null) {
+            return shape;
+        }
+        shape = shapes.computeIfAbsent(normalize(sql), Shape::new);
+        if (shapesBySql.size() < MAX_CACHED_SQL) { // sql with inlined values would otherwise fill the cache
+            shapesBySql.putIfAbsent(sql, shape);
+        }
+        return shape;
+    }
+
+    @NotNull
+    static String normalize(@NotNull String sql) {
+        var shape = WHITESPACE.matcher(LITERALS.matcher(sql).replaceAll("?")).replaceAll(" ").strip();
+        return shape.length() > MAX_SHAPE_LENGTH ? shape.substring(0, MAX_SHAPE_LENGTH) + "..." : shape;
+    }
+
+    /**
+     * Gets the shapes which took the most time in total
+     *
+     * @param limit maximum number of shapes
+     * @return shapes ordered by their total time, descending
+     */
+    @NotNull
+    public List<Shape> topByTotalTime(int limit) {
+        return shapes.values().stream()
+                .sorted(Comparator.comparingDouble((Shape shape) -> shape.total().totalMillis()).reversed())
+                .limit(limit)
+                .toList();
+    }
+
+    /**
+     * Removes all recorded statistics
+     */
+    public void reset() {
+        shapesBySql.clear();
+        shapes.clear();
+    }
+
+    @NotNull
+    public Collection<Shape> shapes() {
+        return shapes.values();
+    }
+
+    /**
+     * @return duration from which on statements are logged as slow, zero if slow statements are not logged
+     */
+    @NotNull
+    public Duration slowQueryThreshold() {
+        return Duration.ofNanos(slowQueryNanos);
+    }
+
+    /**
+     * @param slowQueryThreshold duration from which on statements are logged as slow, zero to disable the slow query log
+     */
+    public void slowQueryThreshold(@NotNull Duration slowQueryThreshold) {
+        this.slowQueryNanos = slowQueryThreshold.toNanos();
+    }
+
+    /**
+     * Statistics of all statements with the same shape
+     */
+    public static class Shape {
+
+        private final String sql;
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LatencyHistogram borrow = new LatencyHistogram();
+        private final LatencyHistogram execute = new LatencyHistogram();
+        private final LatencyHistogram total = new LatencyHistogram();
+
+        private Shape(@NotNull String sql) {
+            this.sql = sql;
+        }
+
+        /**
+         * @return normalized sql of the statements
+         */
+        @NotNull
+        public String sql() {
+            return sql;
+        }
+
+        public long calls() {
+            return calls.sum();
+        }
+
+        public long errors() {
+            return errors.sum();
+        }
+
+        /**
+         * @return time to borrow a connection from the pool
+         */
+        @NotNull
+        public LatencyHistogram borrow() {
+            return borrow;
+        }
+
+        /**
+         * @return time to execute the statement and read its result
+         */
+        @NotNull
+        public LatencyHistogram execute() {
+            return execute;
+        }
+
+        /**
+         * @return time from requesting the connection until the statement was done
+         */
+        @NotNull
+        public LatencyHistogram total() {
+            return total;
+        }
+    }
+}
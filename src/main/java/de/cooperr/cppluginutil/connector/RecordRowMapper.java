@@ -0,0 +1,70 @@
+package de.cooperr.cppluginutil.connector;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Maps rows to records by reading every record component from the column with the same name in snake case
+ *
+ * @param <R> record to which the rows are mapped
+ * @see RowMapper#of(Class)
+ */
+final class RecordRowMapper<R extends Record> implements RowMapper<R> {
+
+    private static final Map<Class<?>, Class<?>> BOXED_TYPES = Map.of(
+            int.class, Integer.class, long.class, Long.class, double.class, Double.class, float.class, Float.class,
+            boolean.class, Boolean.class, short.class, Short.class, byte.class, Byte.class);
+    private static final Map<Class<?>, Object> DEFAULT_VALUES = Map.of(
+            int.class, 0, long.class, 0L, double.class, 0d, float.class, 0f,
+            boolean.class, false, short.class, (short) 0, byte.class, (byte) 0);
+
+    private final Class<R> type;
+    private final Constructor<R> constructor;
+    private final String[] columns;
+    private final Class<?>[] columnTypes;
+    private final Class<?>[] parameterTypes;
+
+    RecordRowMapper(@NotNull Class<R> type) {
+        this.type = type;
+
+        var components = type.getRecordComponents();
+        columns = new String[components.length];
+        columnTypes = new Class<?>[components.length];
+        parameterTypes = new Class<?>[components.length];
+        for (var i = 0; i < components.length; i++) {
+            columns[i] = components[i].getName().replaceAll("([a-z0-9])([A-Z])", "$1_$2").toLowerCase(Locale.ROOT);
+            parameterTypes[i] = components[i].getType();
+            columnTypes[i] = BOXED_TYPES.getOrDefault(parameterTypes[i], parameterTypes[i]);
+        }
+
+        try {
+            constructor = type.getDeclaredConstructor(parameterTypes);
+            constructor.setAccessible(true);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException("Record \"%s\" has no canonical constructor".formatted(type.getName()), e);
+        }
+    }
+
+    @Override
+    public R map(@NotNull ResultSet resultSet) throws SQLException {
+        var values = new Object[columns.length];
+        for (var i = 0; i < columns.length; i++) {
+            values[i] = resultSet.getObject(columns[i], columnTypes[i]);
+            if (values[i] == null && parameterTypes[i].isPrimitive()) {
+                values[i] = DEFAULT_VALUES.get(parameterTypes[i]); // SQL NULL in a column of a primitive component
+            }
+        }
+
+        try {
+            return constructor.newInstance(values);
+        } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+            throw new SQLException("Failed to map row to record \"%s\"".formatted(type.getName()), e);
+        }
+    }
+}
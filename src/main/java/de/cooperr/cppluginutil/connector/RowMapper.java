@@ -0,0 +1,39 @@
+package de.cooperr.cppluginutil.connector;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps the current row of a result set to an object
+ *
+ * @param <T> type of the mapped rows
+ * @see DatabaseConnector#query(String, RowMapper, Object...)
+ */
+@FunctionalInterface
+public interface RowMapper<T> {
+
+    /**
+     * Maps the current row, the result set must not be moved
+     *
+     * @param resultSet result set positioned at the row to map
+     * @return mapped row
+     * @throws SQLException if a column could not be read
+     */
+    T map(@NotNull ResultSet resultSet) throws SQLException;
+
+    /**
+     * Creates a mapper which reads every record component from the column with the same name<br>
+     * Component names in camel case are read from columns in snake case, e.g. {@code playerId} from {@code player_id}.
+     * The mapper only looks up the constructor once, so it should be kept in a constant and reused.
+     *
+     * @param type record to which the rows should be mapped
+     * @param <R>  record to which the rows should be mapped
+     * @return mapper creating a record for every row
+     */
+    @NotNull
+    static <R extends Record> RowMapper<R> of(@NotNull Class<R> type) {
+        return new RecordRowMapper<>(type);
+    }
+}
@@ -0,0 +1,336 @@
+package de.cooperr.cppluginutil.connector;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+/**
+ * Durable first-in first-out queue of byte records in memory-mapped segment files<br>
+ * Records are appended to the last segment and read from the segment of the cursor, a new segment is started once the
+ * last segment is full. Acknowledged records are skipped by moving the cursor, segments which only hold acknowledged
+ * records are deleted. Every record is stored with its length and checksum, so a record which was written partially
+ * when the process died is detected and overwritten. The checksum of a record is verified once when it is recovered or
+ * read the first time, appended records are valid without a check.<br>
+ * Written records are visible to the operating system immediately and survive a crash of the process,
+ * they are forced to the disk when the log is closed.
+ */
+final class SpoolLog implements AutoCloseable {
+
+    private static final int SEGMENT_SIZE = 1 << 20;
+    private static final int HEADER_SIZE = Integer.BYTES * 2; // length and checksum
+    private static final String SEGMENT_SUFFIX = ".segment";
+    private static final String CURSOR_FILE = "cursor";
+
+    private final Path directory;
+    private final int maxSegments;
+    private final TreeSet<Long> segments = new TreeSet<>();
+
+    private final FileChannel cursorChannel;
+    private final MappedByteBuffer cursor;
+
+    private Segment readSegment;
+    private int readOffset;
+    private Segment writeSegment;
+    private int writeOffset;
+    private boolean closed;
+
+    /**
+     * Opens the log in the directory and recovers the cursor and the end of the last segment
+     *
+     * @param directory   directory of the segment files
+     * @param maxSegments maximum number of segments, appends fail if the log would need more
+     * @throws IOException if the log could not be opened
+     */
+    SpoolLog(@NotNull Path directory, int maxSegments) throws IOException {
+        this.directory = directory;
+        this.maxSegments = maxSegments;
+
+        Files.createDirectories(directory);
+        cursorChannel = FileChannel.open(directory.resolve(CURSOR_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            lock(); // locked before the segments are listed, so no other log changes them in the meantime
+            cursor = cursorChannel.map(FileChannel.MapMode.READ_WRITE, 0, Long.BYTES + Integer.BYTES);
+            open();
+        } catch (IOException | RuntimeException e) {
+            cursorChannel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Lists the segments and recovers the cursor and the end of the last segment
+     *
+     * @throws IOException if the segments could not be listed or opened
+     */
+    private void open() throws IOException {
+        try (var files = Files.list(directory)) {
+            files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.endsWith(SEGMENT_SUFFIX))
+                    .forEach(name -> {
+                        try {
+                            segments.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                        } catch (NumberFormatException ignored) {
+                        }
+                    });
+        }
+        if (segments.isEmpty()) {
+            segments.add(0L);
+        }
+
+        var cursorSegment = cursor.getLong(0);
+        var cursorOffset = cursor.getInt(Long.BYTES);
+        if (!segments.contains(cursorSegment)) { // the cursor is new or its segment was deleted after it was written
+            cursorSegment = segments.first();
+            cursorOffset = 0;
+        }
+        segments.headSet(cursorSegment).forEach(this::delete);
+        segments.headSet(cursorSegment).clear();
+
+        readSegment = new Segment(cursorSegment);
+        readOffset = Math.max(0, Math.min(cursorOffset, SEGMENT_SIZE));
+        readSegment.verifiedEnd = readOffset; // records before the cursor are acknowledged and never read again
+        writeSegment = segments.last() == cursorSegment ? readSegment : new Segment(segments.last());
+        writeOffset = recoverEnd(writeSegment, writeSegment == readSegment ? readOffset : 0);
+        saveCursor();
+    }
+
+    /**
+     * Locks the cursor file until the log is closed, so no other log of this or another process uses the directory<br>
+     * The lock is released when the cursor channel is closed.
+     *
+     * @throws IOException if the directory is already used
+     */
+    private void lock() throws IOException {
+        FileLock lock;
+        try {
+            lock = cursorChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null; // held by another log of this process, e.g. a connector of a previous reload which was not closed
+        }
+        if (lock == null) {
+            throw new IOException("Spool \"%s\" is already used by another connector".formatted(directory));
+        }
+    }
+
+    /**
+     * Finds the end of the valid records of the segment and clears everything after it
+     *
+     * @param segment segment to scan
+     * @param offset  offset of a record from which on the segment is scanned
+     * @return offset after the last valid record
+     */
+    private static int recoverEnd(@NotNull Segment segment, int offset) {
+        segment.verifiedEnd = Math.max(segment.verifiedEnd, offset);
+        while (segment.recordLength(offset) > 0) {
+            offset += HEADER_SIZE + segment.recordLength(offset);
+        }
+        for (var i = offset; i < SEGMENT_SIZE; i++) { // removes a partially written record
+            segment.buffer.put(i, (byte) 0);
+        }
+        return offset;
+    }
+
+    /**
+     * Appends a record
+     *
+     * @param record record to append
+     * @throws IOException if the record is too large, the log is full or a new segment could not be created
+     */
+    synchronized void append(@NotNull byte[] record) throws IOException {
+        ensureOpen();
+        if (record.length == 0 || HEADER_SIZE + record.length > SEGMENT_SIZE) {
+            throw new IOException("Record of %d bytes does not fit into a segment".formatted(record.length));
+        }
+        if (writeOffset + HEADER_SIZE + record.length > SEGMENT_SIZE) {
+            if (segments.size() >= maxSegments) {
+                throw new IOException("Spool is full");
+            }
+            var next = new Segment(writeSegment.id + 1);
+            if (writeSegment != readSegment) {
+                writeSegment.close();
+            }
+            segments.add(next.id);
+            writeSegment = next;
+            writeOffset = 0;
+        }
+
+        var checksum = new CRC32();
+        checksum.update(record);
+        writeSegment.buffer.put(writeOffset + HEADER_SIZE, record);
+        writeSegment.buffer.putInt(writeOffset + Integer.BYTES, (int) checksum.getValue());
+        writeSegment.buffer.putInt(writeOffset, record.length); // written last, so the record is only visible once it is complete
+        writeOffset += HEADER_SIZE + record.length;
+        writeSegment.verifiedEnd = writeOffset;
+    }
+
+    /**
+     * Reads the oldest records which were not acknowledged yet, without removing them<br>
+     * Only records of one segment are returned at once.
+     *
+     * @param maxRecords maximum number of records
+     * @return oldest records, empty if the log is empty
+     * @throws IOException if the next segment could not be opened
+     */
+    @NotNull
+    synchronized List<byte[]> peek(int maxRecords) throws IOException {
+        ensureOpen();
+        skipReadSegment();
+        var records = new ArrayList<byte[]>();
+        var offset = readOffset;
+        int length;
+        while (records.size() < maxRecords && (length = readSegment.recordLength(offset)) > 0) {
+            var record = new byte[length];
+            readSegment.buffer.get(offset + HEADER_SIZE, record);
+            records.add(record);
+            offset += HEADER_SIZE + length;
+        }
+        return records;
+    }
+
+    /**
+     * Removes the oldest records after they were handled
+     *
+     * @param count number of records, at most the number of records returned by the last peek
+     * @throws IOException if the next segment could not be opened
+     */
+    synchronized void acknowledge(int count) throws IOException {
+        ensureOpen();
+        for (var i = 0; i < count; i++) {
+            skipReadSegment();
+            var length = readSegment.recordLength(readOffset);
+            if (length <= 0) {
+                break;
+            }
+            readOffset += HEADER_SIZE + length;
+        }
+        skipReadSegment();
+        saveCursor();
+    }
+
+    synchronized boolean isEmpty() throws IOException {
+        ensureOpen();
+        skipReadSegment();
+        return readSegment.recordLength(readOffset) <= 0;
+    }
+
+    /**
+     * Moves the cursor to the next segment and deletes the read segment if all of its records are acknowledged
+     */
+    private void skipReadSegment() throws IOException {
+        while (readSegment != writeSegment && readSegment.recordLength(readOffset) <= 0) {
+            var finished = readSegment;
+            var next = segments.higher(finished.id);
+            readSegment = next == writeSegment.id ? writeSegment : new Segment(next);
+            readOffset = 0;
+            saveCursor(); // the cursor has to leave the segment before it is deleted
+            finished.close();
+            segments.remove(finished.id);
+            delete(finished.id);
+        }
+    }
+
+    /**
+     * @throws IOException if the log is closed, it must not be changed after its lock was released
+     */
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Spool \"%s\" is closed".formatted(directory));
+        }
+    }
+
+    private void saveCursor() {
+        cursor.putLong(0, readSegment.id);
+        cursor.putInt(Long.BYTES, readOffset);
+    }
+
+    private void delete(long id) {
+        try {
+            Files.deleteIfExists(segmentPath(id));
+        } catch (IOException ignored) { // deleted again when the log is opened the next time
+        }
+    }
+
+    @NotNull
+    private Path segmentPath(long id) {
+        return directory.resolve("%016d%s".formatted(id, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * Forces all records and the cursor to the disk and closes the files
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        writeSegment.buffer.force();
+        cursor.force();
+        if (readSegment != writeSegment) {
+            readSegment.close();
+        }
+        writeSegment.close();
+        cursorChannel.close();
+    }
+
+    /**
+     * Segment file which is mapped into memory as a whole
+     */
+    private final class Segment {
+
+        private final long id;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private int verifiedEnd; // end of the records whose checksums are known to be valid
+
+        private Segment(long id) throws IOException {
+            this.id = id;
+            channel = FileChannel.open(segmentPath(id), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+        }
+
+        /**
+         * Reads the length of the record, its checksum is only verified the first time, records are read in order
+         *
+         * @param offset offset of the record
+         * @return length of the complete and valid record at the offset, 0 if there is none
+         */
+        private int recordLength(int offset) {
+            if (offset < verifiedEnd) {
+                return buffer.getInt(offset);
+            }
+            if (offset + HEADER_SIZE > SEGMENT_SIZE) {
+                return 0;
+            }
+            var length = buffer.getInt(offset);
+            if (length <= 0 || offset + HEADER_SIZE + length > SEGMENT_SIZE) {
+                return 0;
+            }
+            var checksum = new CRC32();
+            checksum.update(buffer.slice(offset + HEADER_SIZE, length)); // computed on the mapping without copying the record
+            if ((int) checksum.getValue() != buffer.getInt(offset + Integer.BYTES)) {
+                return 0;
+            }
+            if (offset == verifiedEnd) {
+                verifiedEnd = offset + HEADER_SIZE + length;
+            }
+            return length;
+        }
+
+        private void close() throws IOException {
+            channel.close(); // the mapping stays valid until it is garbage collected
+        }
+    }
+}
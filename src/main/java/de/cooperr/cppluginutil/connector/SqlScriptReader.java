@@ -0,0 +1,176 @@
+package de.cooperr.cppluginutil.connector;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Splits a sql script into its statements while reading it line by line<br>
+ * Delimiters inside strings, quoted identifiers and comments are ignored. Comments are removed, except for executable
+ * comments ({@code /*! ... *}{@code /}). Statements with a body, e.g. triggers or procedures, are supported through
+ * the {@code DELIMITER} command of the MySQL client.
+ */
+final class SqlScriptReader implements Closeable {
+
+    private static final String DELIMITER_COMMAND = "DELIMITER ";
+
+    private final BufferedReader reader;
+    private final StringBuilder statement = new StringBuilder();
+
+    private String delimiter = ";";
+    private State state = State.CODE;
+    private String line;
+    private int position;
+
+    SqlScriptReader(@NotNull BufferedReader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Reads the next statement
+     *
+     * @return next statement without delimiter or null if there are no more statements
+     * @throws IOException if the script could not be read
+     */
+    @Nullable
+    String next() throws IOException {
+        while (true) {
+            if (line == null) {
+                line = reader.readLine();
+                position = 0;
+                if (line == null) {
+                    return takeStatement(); // the last statement does not need a delimiter
+                }
+                if (state == State.CODE && blank(statement) && isDelimiterCommand(line)) {
+                    delimiter = line.strip().substring(DELIMITER_COMMAND.length()).strip();
+                    line = null;
+                    continue;
+                }
+            }
+
+            var next = scanLine();
+            if (next != null) {
+                return next;
+            }
+        }
+    }
+
+    /**
+     * Scans the current line until the end of the next statement or the end of the line
+     *
+     * @return statement ending in the current line or null if the line contains no further delimiter
+     */
+    @Nullable
+    private String scanLine() {
+        while (position < line.length()) {
+            var c = line.charAt(position);
+            switch (state) {
+                case CODE -> {
+                    if (line.startsWith(delimiter, position)) {
+                        position += delimiter.length();
+                        var next = takeStatement();
+                        if (next != null) {
+                            return next;
+                        }
+                        continue;
+                    }
+                    if (c == '#' || line.startsWith("--", position) &&
+                            (position + 2 == line.length() || Character.isWhitespace(line.charAt(position + 2)))) {
+                        position = line.length(); // line comment
+                        continue;
+                    }
+                    if (line.startsWith("/*", position) && !line.startsWith("/*!", position)) {
+                        state = State.BLOCK_COMMENT;
+                        position += 2;
+                        continue;
+                    }
+                    if (c == '\'') {
+                        state = State.SINGLE_QUOTE;
+                    } else if (c == '"') {
+                        state = State.DOUBLE_QUOTE;
+                    } else if (c == '`') {
+                        state = State.BACKTICK;
+                    }
+                    statement.append(c);
+                    position++;
+                }
+                case SINGLE_QUOTE, DOUBLE_QUOTE, BACKTICK -> {
+                    statement.append(c);
+                    position++;
+                    if (c == '\\' && state != State.BACKTICK) {
+                        if (position < line.length()) {
+                            statement.append(line.charAt(position++)); // escaped character
+                        }
+                    } else if (c == state.quote) {
+                        if (position < line.length() && line.charAt(position) == c) {
+                            statement.append(line.charAt(position++)); // doubled quote
+                        } else {
+                            state = State.CODE;
+                        }
+                    }
+                }
+                case BLOCK_COMMENT -> {
+                    if (line.startsWith("*/", position)) {
+                        state = State.CODE;
+                        position += 2;
+                        statement.append(' ');
+                    } else {
+                        position++;
+                    }
+                }
+            }
+        }
+
+        if (state != State.BLOCK_COMMENT) {
+            statement.append('\n');
+        }
+        line = null;
+        return null;
+    }
+
+    @Nullable
+    private String takeStatement() {
+        var next = statement.toString().strip();
+        statement.setLength(0);
+        return next.isEmpty() ? null : next;
+    }
+
+    private static boolean blank(@NotNull CharSequence sequence) {
+        for (var i = 0; i < sequence.length(); i++) {
+            if (!Character.isWhitespace(sequence.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isDelimiterCommand(@NotNull String line) {
+        var stripped = line.strip();
+        return stripped.length() > DELIMITER_COMMAND.length() &&
+                stripped.substring(0, DELIMITER_COMMAND.length()).toUpperCase(Locale.ROOT).equals(DELIMITER_COMMAND);
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private enum State {
+
+        CODE('\0'),
+        SINGLE_QUOTE('\''),
+        DOUBLE_QUOTE('"'),
+        BACKTICK('`'),
+        BLOCK_COMMENT('\0');
+
+        private final char quote;
+
+        State(char quote) {
+            this.quote = quote;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package de.cooperr.cppluginutil.connector;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Runs sql scripts statement by statement over one connection inside a transaction<br>
+ * Consecutive data manipulation statements are executed as batch. Every script which ran successfully is recorded with
+ * the checksum of its content, so it is skipped until its content changes.
+ * Note that MySQL commits implicitly before and after data definition statements, so only the other statements
+ * are rolled back if the script fails.
+ */
+final class SqlScriptRunner {
+
+    static final String APPLIED_SCRIPTS_TABLE = "applied_sql_scripts";
+
+    private static final int BATCH_SIZE = 500;
+    private static final Set<String> BATCHABLE_STATEMENTS = Set.of("INSERT", "UPDATE", "DELETE", "REPLACE");
+
+    private SqlScriptRunner() {
+    }
+
+    /**
+     * Runs the script unless it was already applied with the same content
+     *
+     * @param connection connection to run the script with
+     * @param file       sql script
+     * @return whether the script ran, false if it was skipped
+     * @throws IOException  if the script could not be read
+     * @throws SQLException if a statement failed, the transaction is rolled back
+     */
+    static boolean run(@NotNull Connection connection, @NotNull File file) throws IOException, SQLException {
+        var checksum = checksum(file);
+        try (var statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS " + APPLIED_SCRIPTS_TABLE + " (name VARCHAR(255) PRIMARY KEY, " +
+                    "checksum CHAR(64) NOT NULL, applied_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)");
+        }
+        try (var statement = DatabaseConnector.prepare(connection,
+                "SELECT checksum FROM " + APPLIED_SCRIPTS_TABLE + " WHERE name = ?", new Object[]{file.getName()});
+             var resultSet = statement.executeQuery()) {
+            if (resultSet.next() && checksum.equals(resultSet.getString(1))) {
+                return false;
+            }
+        }
+
+        var autoCommit = connection.getAutoCommit();
+        try (var reader = new SqlScriptReader(Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8));
+             var batch = connection.createStatement()) {
+            connection.setAutoCommit(false);
+
+            var batched = 0;
+            String sql;
+            while ((sql = reader.next()) != null) {
+                if (batchable(sql)) {
+                    batch.addBatch(sql);
+                    if (++batched == BATCH_SIZE) {
+                        batch.executeBatch();
+                        batched = 0;
+                    }
+                    continue;
+                }
+                if (batched > 0) {
+                    batch.executeBatch();
+                    batched = 0;
+                }
+                try (var statement = connection.createStatement()) {
+                    statement.execute(sql);
+                }
+            }
+            if (batched > 0) {
+                batch.executeBatch();
+            }
+
+            try (var statement = DatabaseConnector.prepare(connection, "INSERT INTO " + APPLIED_SCRIPTS_TABLE +
+                    " (name, checksum) VALUES (?, ?) ON DUPLICATE KEY UPDATE checksum = VALUES(checksum), applied_at = CURRENT_TIMESTAMP",
+                    new Object[]{file.getName(), checksum})) {
+                statement.executeUpdate();
+            }
+            connection.commit();
+        } catch (IOException | SQLException | RuntimeException e) {
+            try {
+                connection.rollback();
+            } catch (SQLException rollbackFailure) { // the failed statement stays the cause which is logged
+                e.addSuppressed(rollbackFailure);
+            }
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+        return true;
+    }
+
+    private static boolean batchable(@NotNull String sql) {
+        var end = 0;
+        while (end < sql.length() && Character.isLetter(sql.charAt(end))) {
+            end++;
+        }
+        return BATCHABLE_STATEMENTS.contains(sql.substring(0, end).toUpperCase(Locale.ROOT));
+    }
+
+    @NotNull
+    private static String checksum(@NotNull File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every java platform supports SHA-256
+        }
+        try (var input = new DigestInputStream(Files.newInputStream(file.toPath()), digest)) {
+            input.transferTo(OutputStream.nullOutputStream());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+}
@@ -0,0 +1,204 @@
+package de.cooperr.cppluginutil.util;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Compact binary copy of the values of a config which can be read much faster than parsing its YAML file<br>
+ * The snapshot is stamped with the size and the modification time of the YAML file, so it is only used as long as
+ * the YAML file did not change.
+ */
+final class ConfigSnapshot {
+
+    private static final int MAGIC = 0x43435346; // "CCSF"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = Integer.BYTES * 2 + Long.BYTES * 2 + Integer.BYTES * 2;
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte INTEGER = 2;
+    private static final byte LONG = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte BOOLEAN = 5;
+    private static final byte LIST = 6;
+    private static final byte MAP = 7;
+
+    private ConfigSnapshot() {
+    }
+
+    /**
+     * Encodes all values of the section
+     *
+     * @param section section to encode
+     * @return encoded values
+     * @throws UnsupportedOperationException if the section contains values which cannot be encoded, e.g. serialized objects
+     */
+    @NotNull
+    static byte[] encode(@NotNull ConfigurationSection section) {
+        var bytes = new ByteArrayOutputStream();
+        try (var output = new DataOutputStream(bytes)) {
+            writeValue(output, section);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // cannot happen when writing to a byte array
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes the encoded values to the snapshot file, stamped with the current size and modification time of the source file
+     *
+     * @param snapshotFile snapshot file to write
+     * @param sourceFile   YAML file from which the values are
+     * @param body         encoded values
+     * @throws IOException if the snapshot file could not be written
+     */
+    static void write(@NotNull File snapshotFile, @NotNull File sourceFile, @NotNull byte[] body) throws IOException {
+        var crc = new CRC32();
+        crc.update(body);
+
+        var buffer = ByteBuffer.allocate(HEADER_SIZE + body.length)
+                .putInt(MAGIC)
+                .putInt(FORMAT_VERSION)
+                .putLong(sourceFile.length())
+                .putLong(sourceFile.lastModified())
+                .putInt(body.length)
+                .putInt((int) crc.getValue())
+                .put(body);
+
+        var temporaryFile = new File(snapshotFile.getPath() + ".tmp");
+        Files.write(temporaryFile.toPath(), buffer.array());
+        Files.move(temporaryFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the values from the snapshot file if it still matches the source file
+     *
+     * @param snapshotFile snapshot file to read
+     * @param sourceFile   YAML file from which the values are
+     * @return values by their keys, nested sections as maps, or null if the snapshot is missing, outdated or damaged
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> read(@NotNull File snapshotFile, @NotNull File sourceFile) {
+        if (!snapshotFile.isFile()) {
+            return null;
+        }
+        try {
+            var buffer = ByteBuffer.wrap(Files.readAllBytes(snapshotFile.toPath()));
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION ||
+                    buffer.getLong() != sourceFile.length() || buffer.getLong() != sourceFile.lastModified()) {
+                return null;
+            }
+
+            var body = new byte[buffer.getInt()];
+            var expectedCrc = buffer.getInt();
+            if (body.length != buffer.remaining()) {
+                return null;
+            }
+            buffer.get(body);
+
+            var crc = new CRC32();
+            crc.update(body);
+            if ((int) crc.getValue() != expectedCrc) {
+                return null;
+            }
+
+            try (var input = new DataInputStream(new ByteArrayInputStream(body))) {
+                return (Map<String, Object>) readValue(input);
+            }
+        } catch (IOException | RuntimeException e) {
+            return null; // damaged snapshots are regenerated from the YAML file
+        }
+    }
+
+    private static void writeValue(@NotNull DataOutputStream output, @Nullable Object value) throws IOException {
+        if (value == null) {
+            output.writeByte(NULL);
+        } else if (value instanceof String string) {
+            output.writeByte(STRING);
+            var bytes = string.getBytes(StandardCharsets.UTF_8);
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        } else if (value instanceof Integer integer) {
+            output.writeByte(INTEGER);
+            output.writeInt(integer);
+        } else if (value instanceof Long longValue) {
+            output.writeByte(LONG);
+            output.writeLong(longValue);
+        } else if (value instanceof Double doubleValue) {
+            output.writeByte(DOUBLE);
+            output.writeDouble(doubleValue);
+        } else if (value instanceof Boolean bool) {
+            output.writeByte(BOOLEAN);
+            output.writeBoolean(bool);
+        } else if (value instanceof List<?> list) {
+            output.writeByte(LIST);
+            output.writeInt(list.size());
+            for (var element : list) {
+                writeValue(output, element);
+            }
+        } else if (value instanceof ConfigurationSection section) {
+            writeMap(output, section.getValues(false));
+        } else if (value instanceof Map<?, ?> map) {
+            writeMap(output, map);
+        } else {
+            throw new UnsupportedOperationException("Values of type \"%s\" cannot be encoded".formatted(value.getClass().getName()));
+        }
+    }
+
+    private static void writeMap(@NotNull DataOutputStream output, @NotNull Map<?, ?> map) throws IOException {
+        output.writeByte(MAP);
+        output.writeInt(map.size());
+        for (var entry : map.entrySet()) {
+            writeValue(output, String.valueOf(entry.getKey()));
+            writeValue(output, entry.getValue());
+        }
+    }
+
+    @Nullable
+    private static Object readValue(@NotNull DataInputStream input) throws IOException {
+        var type = input.readByte();
+        return switch (type) {
+            case NULL -> null;
+            case STRING -> new String(input.readNBytes(input.readInt()), StandardCharsets.UTF_8);
+            case INTEGER -> input.readInt();
+            case LONG -> input.readLong();
+            case DOUBLE -> input.readDouble();
+            case BOOLEAN -> input.readBoolean();
+            case LIST -> {
+                var size = input.readInt();
+                var list = new ArrayList<>(size);
+                for (var i = 0; i < size; i++) {
+                    list.add(readValue(input));
+                }
+                yield list;
+            }
+            case MAP -> {
+                var size = input.readInt();
+                var map = new LinkedHashMap<String, Object>(size * 4 / 3 + 1);
+                for (var i = 0; i < size; i++) {
+                    map.put((String) readValue(input), readValue(input));
+                }
+                yield map;
+            }
+            default -> throw new IOException("Unknown value type %d".formatted(type));
+        };
+    }
+}
@@ -0,0 +1,127 @@
+package de.cooperr.cppluginutil.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.RecordComponent;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Typed view of a config section which is read into an immutable record<br>
+ * The record is only rebuilt after the config changed, so reading the settings is a plain field access.
+ * Every record component is read from the key with its name, e.g. {@code record TimerSettings(int time)} bound to
+ * {@code "timer"} reads {@code timer.time}.
+ * Supported component types are primitives, {@link String}, enums, {@link List}s and nested records.
+ * Changes are detected through the config itself, values set directly on one of its sub sections are not detected.
+ *
+ * @param <T> record holding the settings
+ * @see CustomConfig#view(String, Class)
+ */
+public class ConfigView<T extends Record> {
+
+    private final CustomConfig config;
+    private final String path;
+    private final Class<T> type;
+
+    private volatile Snapshot<T> snapshot;
+
+    /**
+     * Binds the record to the path of the config
+     *
+     * @param config config to read the settings from
+     * @param path   path of the section containing the settings, empty for the root section
+     * @param type   record holding the settings
+     */
+    ConfigView(@NotNull CustomConfig config, @NotNull String path, @NotNull Class<T> type) {
+        this.config = config;
+        this.path = path;
+        this.type = type;
+    }
+
+    /**
+     * Gets the settings, they are only read from the config again if it changed since the last call
+     *
+     * @return current settings
+     */
+    @NotNull
+    public T get() {
+        var modifications = config.modifications();
+        var snapshot = this.snapshot;
+        if (snapshot == null || snapshot.modifications() != modifications) {
+            snapshot = new Snapshot<>(modifications, read(config, path, type));
+            this.snapshot = snapshot;
+        }
+        return snapshot.value();
+    }
+
+    @NotNull
+    private static <R extends Record> R read(@NotNull CustomConfig config, @NotNull String path, @NotNull Class<R> type) {
+        var components = type.getRecordComponents();
+        var values = new Object[components.length];
+        var parameterTypes = new Class<?>[components.length];
+
+        for (var i = 0; i < components.length; i++) {
+            var key = path.isEmpty() ? components[i].getName() : path + "." + components[i].getName();
+            values[i] = read(config, key, components[i]);
+            parameterTypes[i] = components[i].getType();
+        }
+
+        try {
+            Constructor<R> constructor = type.getDeclaredConstructor(parameterTypes);
+            constructor.setAccessible(true);
+            return constructor.newInstance(values);
+        } catch (NoSuchMethodException | InstantiationException | IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalArgumentException("Failed to create settings record \"%s\"".formatted(type.getName()), e);
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object read(@NotNull CustomConfig config, @NotNull String key, @NotNull RecordComponent component) {
+        var type = component.getType();
+        if (type == int.class) {
+            return config.getInt(key);
+        } else if (type == long.class) {
+            return config.getLong(key);
+        } else if (type == double.class) {
+            return config.getDouble(key);
+        } else if (type == float.class) {
+            return (float) config.getDouble(key);
+        } else if (type == boolean.class) {
+            return config.getBoolean(key);
+        } else if (type == String.class) {
+            return config.getString(key);
+        } else if (type.isEnum()) {
+            var name = config.getString(key);
+            return name == null ? null : Enum.valueOf((Class<Enum>) type, name.toUpperCase(Locale.ROOT));
+        } else if (type == List.class) {
+            var list = config.getList(key);
+            if (list == null) {
+                return List.of();
+            }
+            var elementType = component.getGenericType() instanceof ParameterizedType parameterizedType ?
+                    parameterizedType.getActualTypeArguments()[0] : Object.class;
+            return Collections.unmodifiableList(elementType == String.class ? config.getStringList(key) : new ArrayList<>(list));
+        } else if (type.isRecord()) {
+            return read(config, key, (Class<? extends Record>) type);
+        }
+        return type.cast(config.get(key));
+    }
+
+    @NotNull
+    public String path() {
+        return path;
+    }
+
+    @NotNull
+    public Class<T> type() {
+        return type;
+    }
+
+    private record Snapshot<T>(long modifications, @NotNull T value) {
+    }
+}
@@ -2,15 +2,34 @@ package de.cooperr.cppluginutil.util;
 
 import de.cooperr.cppluginutil.base.PaperPlugin;
 import org.apache.commons.io.FileUtils;
+import org.bukkit.configuration.Configuration;
+import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.InvalidConfigurationException;
-import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.scheduler.BukkitTask;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 
 /**
@@ -21,6 +40,23 @@ public class CustomConfig extends YamlConfiguration {
     private final PaperPlugin plugin;
 
     private final File file;
+    private final File backupFile;
+    private final File temporaryFile;
+    private final File snapshotFile;
+    private final Object fileLock = new Object();
+    private final List<Consumer<Set<String>>> changeListeners = new CopyOnWriteArrayList<>();
+
+    private volatile long modifications = 0;
+    private long saveDelay = 0;
+    private BukkitTask pendingSave;
+    private final Object versionLock = new Object(); // never held while the file is written, so the main thread does not wait for it
+    private long contentVersion = 0; // guarded by versionLock
+    private String queuedContent; // guarded by versionLock, content of the latest version, null if it has to be written again
+    private long writtenVersion = 0; // guarded by versionLock
+    private String writtenContent; // guarded by versionLock, content of the config file if it was written by this config
+    private boolean snapshotUnsupported = false; // only accessed on the main thread
+    private boolean fileValid = true; // guarded by fileLock, false if the config file is broken and must not become the backup
+    private FileWatcher watcher;
 
     /**
      * Creates a config for the plugin with the specific file name in the plugin data folder and optionally copies the defaults
@@ -31,21 +67,53 @@ public class CustomConfig extends YamlConfiguration {
      * @param defaults configuration file which contains the default values
      */
     public CustomConfig(@NotNull PaperPlugin plugin, @NotNull String fileName, @Nullable String defaults) {
+        this(plugin, fileName, defaults, false);
+    }
+
+    /**
+     * Creates a config for the plugin with the specific file name in the plugin data folder and optionally copies the defaults<br>
+     * With a snapshot, the values are additionally saved in a binary file ({@code '.snapshot'}) next to the config file,
+     * which is loaded instead of parsing the YAML file as long as the YAML file did not change.
+     * This speeds up loading large configs, but comments of the YAML file are not kept.
+     *
+     * @param plugin   plugin to which the config should belong
+     * @param fileName filename of the config (incl. {@code '.yml'}) with<br>
+     *                 optionally parent directories (excl. plugin data folder)
+     * @param defaults configuration file which contains the default values
+     * @param snapshot whether a binary snapshot should be used to load the config
+     */
+    public CustomConfig(@NotNull PaperPlugin plugin, @NotNull String fileName, @Nullable String defaults, boolean snapshot) {
 
         this.plugin = plugin;
 
         file = new File(plugin.getDataFolder(), fileName);
+        backupFile = new File(file.getPath() + ".bak");
+        temporaryFile = new File(file.getPath() + ".tmp");
+        snapshotFile = snapshot ? new File(file.getPath() + ".snapshot") : null;
         try {
-            FileUtils.touch(file);
+            if (!file.exists()) { // touching an existing file would change its modification time and outdate the snapshot
+                FileUtils.touch(file);
+            }
         } catch (IOException e) {
             plugin.getLogger().log(Level.SEVERE, "Failed to create config file \"%s\"".formatted(file.getName()), e);
-            plugin.getServer().getPluginManager().disablePlugin(plugin);
+            plugin.disable();
         }
-        try {
-            load(file);
-        } catch (IOException | InvalidConfigurationException e) {
-            plugin.getLogger().log(Level.SEVERE, "Failed to load config file \"%s\"".formatted(file.getName()), e);
-            plugin.getServer().getPluginManager().disablePlugin(plugin);
+
+        var snapshotValues = snapshot ? ConfigSnapshot.read(snapshotFile, file) : null;
+        if (snapshotValues != null) {
+            snapshotValues.forEach((key, value) -> {
+                if (value instanceof Map<?, ?> section) {
+                    createSection(key, section);
+                } else {
+                    set(key, value);
+                }
+            });
+        } else {
+            try {
+                load(file);
+            } catch (IOException | InvalidConfigurationException e) {
+                loadBackup(e);
+            }
         }
 
         options.copyDefaults(true);
@@ -54,7 +122,14 @@ public class CustomConfig extends YamlConfiguration {
                 setDefaults(YamlConfiguration.loadConfiguration(new FileReader(defaults)));
             } catch (IOException e) {
                 plugin.getLogger().log(Level.SEVERE, "Failed to load default config file \"%s\"".formatted(defaults), e);
-                plugin.getServer().getPluginManager().disablePlugin(plugin);
+                plugin.disable();
+            }
+        }
+
+        if (snapshot && snapshotValues == null && fileValid) { // values of the backup must not be stamped with the broken file
+            var snapshotBody = encodeSnapshot();
+            if (snapshotBody != null) {
+                plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> writeSnapshot(snapshotBody));
             }
         }
     }
@@ -76,31 +151,504 @@ public class CustomConfig extends YamlConfiguration {
     }
 
     /**
-     * Sets the value to the path and saves the config
+     * Loads the backup of the last successful save if the config file could not be loaded
+     *
+     * @param cause exception which occurred while loading the config file
+     */
+    private void loadBackup(@NotNull Exception cause) {
+        if (!backupFile.isFile()) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to load config file \"%s\"".formatted(file.getName()), cause);
+            plugin.disable();
+            return;
+        }
+
+        plugin.getLogger().log(Level.WARNING, "Failed to load config file \"%s\", loading the backup".formatted(file.getName()), cause);
+        try {
+            load(backupFile);
+            fileValid = false; // the broken config file is replaced by the next save, no content was queued yet
+        } catch (IOException | InvalidConfigurationException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to load backup of config file \"%s\"".formatted(file.getName()), e);
+            plugin.disable();
+        }
+    }
+
+    /**
+     * Sets the value to the path, typed views of this config are rebuilt the next time they are read
+     *
+     * @param path  path to set the value to
+     * @param value value to be set to the path, null to remove the entry
+     */
+    @Override
+    public void set(@NotNull String path, @Nullable Object value) {
+        super.set(path, value);
+        modifications++; // only modified on the main thread
+    }
+
+    @Override
+    public void loadFromString(@NotNull String contents) throws InvalidConfigurationException {
+        super.loadFromString(contents);
+        modifications++;
+    }
+
+    @Override
+    public void setDefaults(@NotNull Configuration defaults) {
+        super.setDefaults(defaults);
+        modifications++;
+    }
+
+    /**
+     * Binds a record to a section of this config, see {@link ConfigView} for how the record is read
+     *
+     * @param path path of the section containing the settings, empty for the root section
+     * @param type record holding the settings
+     * @param <T>  record holding the settings
+     * @return typed view of the section
+     */
+    @NotNull
+    public <T extends Record> ConfigView<T> view(@NotNull String path, @NotNull Class<T> type) {
+        return new ConfigView<>(this, path, type);
+    }
+
+    /**
+     * Reloads the config file if it was changed externally<br>
+     * The file is read, parsed and validated against the defaults on a background thread, only the new values are
+     * applied on the main thread at once. Change listeners receive the keys whose values changed.<br>
+     * If the file still holds the last save of this config, pending changes are saved and nothing is reloaded. If the file
+     * was changed externally, the external change wins and pending changes which were not saved yet are dropped with a warning.
+     * Can be called from any thread.
+     *
+     * @return future which completes on the main thread with the changed keys, or exceptionally if the reload failed
+     * @see CustomConfig#addChangeListener(Consumer)
+     */
+    @NotNull
+    public CompletableFuture<Set<String>> reload() {
+        var future = new CompletableFuture<Set<String>>();
+        try {
+            plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> {
+                try {
+                    long versionAtRead;
+                    synchronized (versionLock) {
+                        versionAtRead = writtenVersion;
+                    }
+                    var content = Files.readString(file.toPath(), StandardCharsets.UTF_8);
+                    if (writtenByThis(content)) { // not changed externally, so the pending changes do not replace an edit
+                        applyOnMainThread(future, () -> {
+                            flush();
+                            return Set.of();
+                        });
+                        return;
+                    }
+
+                    var parsed = new YamlConfiguration();
+                    var defaults = getDefaults();
+                    if (defaults != null) {
+                        parsed.setDefaults(defaults);
+                    }
+                    parsed.options().copyDefaults(options().copyDefaults());
+                    parsed.loadFromString(content);
+
+                    var invalidKeys = invalidKeys(parsed);
+                    if (!invalidKeys.isEmpty()) {
+                        throw new InvalidConfigurationException("Values of the keys %s do not match the defaults".formatted(invalidKeys));
+                    }
+
+                    var values = leafValues(parsed);
+                    applyOnMainThread(future, () -> {
+                        var overwritten = dropPendingChanges(content, versionAtRead);
+                        var changes = publish(values);
+                        if (overwritten) {
+                            save(true); // a save of this config replaced the edit after it was read, the edit is written again
+                        }
+                        return changes;
+                    });
+                } catch (Throwable e) {
+                    plugin.getLogger().log(Level.SEVERE, "Failed to reload config file \"%s\"".formatted(file.getName()), e);
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (Throwable e) { // e.g. tasks cannot be scheduled because the plugin is disabled
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private void applyOnMainThread(@NotNull CompletableFuture<Set<String>> future, @NotNull Supplier<Set<String>> apply) {
+        plugin.getServer().getScheduler().runTask(plugin, () -> {
+            try {
+                future.complete(apply.get());
+            } catch (Throwable e) { // e.g. a change listener failed, the values are applied already
+                plugin.getLogger().log(Level.SEVERE, "Failed to apply reloaded config file \"%s\"".formatted(file.getName()), e);
+                future.completeExceptionally(e);
+            }
+        });
+    }
+
+    /**
+     * Drops the changes which were not saved yet because the config file was changed externally, must be called on the main thread<br>
+     * Saves which did not write the file yet are skipped, so they do not replace the external change.
+     *
+     * @param content       externally changed content of the config file
+     * @param versionAtRead written version before the content was read
+     * @return whether a save of this config replaced the content after it was read
+     */
+    private boolean dropPendingChanges(@NotNull String content, long versionAtRead) {
+        var dropped = pendingSave != null;
+        if (dropped) {
+            pendingSave.cancel();
+            pendingSave = null;
+        }
+        boolean overwritten;
+        synchronized (fileLock) { // waits for a save which is being written, so it cannot finish after the check
+            synchronized (versionLock) {
+                overwritten = writtenVersion != versionAtRead;
+                dropped |= writtenVersion < contentVersion;
+                writtenVersion = ++contentVersion; // saves which did not start writing yet have older versions and are skipped
+                writtenContent = overwritten ? null : content;
+                queuedContent = null;
+            }
+        }
+        if (dropped || overwritten) {
+            plugin.getLogger().warning("Config file \"%s\" was changed externally, changes of the plugin which were not saved yet are dropped"
+                    .formatted(file.getName()));
+        }
+        return overwritten;
+    }
+
+    /**
+     * Replaces all values of this config with the reloaded values, must be called on the main thread
+     *
+     * @param values reloaded values by their path
+     * @return keys whose values changed
+     */
+    @NotNull
+    private Set<String> publish(@NotNull Map<String, Object> values) {
+        var oldValues = leafValues(this);
+
+        var changedKeys = new HashSet<String>();
+        oldValues.forEach((key, value) -> {
+            if (!Objects.equals(value, values.get(key))) {
+                changedKeys.add(key);
+            }
+        });
+        values.keySet().stream().filter(key -> !oldValues.containsKey(key)).forEach(changedKeys::add);
+        if (changedKeys.isEmpty()) {
+            return Set.of();
+        }
+
+        getKeys(false).forEach(key -> set(key, null));
+        values.forEach(this::set);
+
+        var changes = Set.copyOf(changedKeys);
+        changeListeners.forEach(listener -> listener.accept(changes));
+        return changes;
+    }
+
+    /**
+     * Collects the keys whose values have a different type than their defaults
+     *
+     * @param parsed parsed config to validate
+     * @return keys with invalid values
+     */
+    @NotNull
+    private static List<String> invalidKeys(@NotNull YamlConfiguration parsed) {
+        var defaults = parsed.getDefaults();
+        if (defaults == null) {
+            return List.of();
+        }
+
+        var invalidKeys = new ArrayList<String>();
+        for (var key : defaults.getKeys(true)) {
+            var defaultValue = defaults.get(key);
+            var value = parsed.get(key);
+            if (value == null || defaultValue == null) {
+                continue;
+            }
+            var compatible = defaultValue instanceof Number ? value instanceof Number :
+                    defaultValue instanceof ConfigurationSection ? value instanceof ConfigurationSection :
+                            defaultValue.getClass().isInstance(value);
+            if (!compatible) {
+                invalidKeys.add(key);
+            }
+        }
+        return invalidKeys;
+    }
+
+    @NotNull
+    private static Map<String, Object> leafValues(@NotNull ConfigurationSection section) {
+        var values = new HashMap<String, Object>();
+        section.getValues(true).forEach((key, value) -> {
+            if (!(value instanceof ConfigurationSection)) {
+                values.put(key, value);
+            }
+        });
+        return values;
+    }
+
+    /**
+     * Adds a listener which is called on the main thread with the changed keys after the config was reloaded
+     *
+     * @param listener listener receiving the changed keys
+     */
+    public void addChangeListener(@NotNull Consumer<Set<String>> listener) {
+        changeListeners.add(listener);
+    }
+
+    /**
+     * Watches the config file and reloads the config whenever the file is changed externally<br>
+     * The watcher has to be stopped when the plugin gets disabled.
+     *
+     * @see CustomConfig#reload()
+     * @see CustomConfig#stopWatching()
+     */
+    public void watch() {
+        stopWatching();
+        try {
+            watcher = new FileWatcher(plugin.getName() + " Config Watcher", file.getAbsoluteFile().getParentFile().toPath(),
+                    path -> path.toString().equals(file.getName()), Duration.ofMillis(500), changedFiles -> reload(), plugin.getLogger());
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to watch config file \"%s\"".formatted(file.getName()), e);
+        }
+    }
+
+    /**
+     * Stops watching the config file if it is being watched
+     */
+    public void stopWatching() {
+        if (watcher != null) {
+            watcher.close();
+            watcher = null;
+        }
+    }
+
+    /**
+     * Sets the value to the path and saves the config, asynchronously if enabled
      *
      * @param path  path to set the value to
      * @param value value to be set to the path, null to remove the entry
      * @see CustomConfig#save()
+     * @see CustomConfig#asyncSave(long)
      */
     public void setAndSave(@NotNull String path, @Nullable Object value) {
         set(path, value);
-        save();
+        if (saveDelay > 0) {
+            saveLater();
+        } else {
+            save();
+        }
+    }
+
+    /**
+     * Enables asynchronous saving: {@link CustomConfig#setAndSave(String, Object)} only marks the config as changed and all
+     * changes within the delay are written in one save on a background thread<br>
+     * Pending saves are written by {@link CustomConfig#flush()}, which is called when the plugin gets disabled.
+     *
+     * @param delayTicks delay in ticks between the first change and the save, 0 to save synchronously again
+     */
+    public void asyncSave(long delayTicks) {
+        saveDelay = delayTicks;
+        if (delayTicks <= 0) {
+            flush();
+        }
     }
 
     /**
-     * Saves the config
+     * Saves the config asynchronously after the save delay, changes until then are saved as well<br>
+     * Must be called on the main thread.
      *
-     * @see FileConfiguration#save(File)
+     * @see CustomConfig#asyncSave(long)
+     */
+    public void saveLater() {
+        if (pendingSave != null) {
+            return;
+        }
+        if (!plugin.isEnabled()) {
+            save(); // tasks cannot be scheduled anymore
+            return;
+        }
+
+        pendingSave = plugin.getServer().getScheduler().runTaskLater(plugin, () -> {
+            pendingSave = null;
+
+            // the config is serialized on the main thread because it is not thread safe, only the file is written asynchronously
+            var content = saveToString();
+            var version = nextVersion(content, false);
+            if (version > 0) {
+                var snapshotBody = encodeSnapshot();
+                plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> write(content, snapshotBody, version));
+            }
+        }, Math.max(saveDelay, 1));
+    }
+
+    /**
+     * Saves pending changes synchronously if there are any, including changes whose asynchronous save is still running or failed
+     */
+    public void flush() {
+        var pending = pendingSave != null;
+        if (pending) {
+            pendingSave.cancel();
+            pendingSave = null;
+        }
+        boolean unwritten;
+        synchronized (versionLock) {
+            unwritten = writtenVersion < contentVersion;
+        }
+        if (pending || unwritten) {
+            save(unwritten); // an unwritten version is written again, the asynchronous save might not finish in time
+        }
+    }
+
+    /**
+     * Saves the config synchronously, the file is not written if the content did not change since the last save
      */
     public void save() {
+        save(false);
+    }
+
+    private void save(boolean force) {
+        var content = saveToString();
+        var version = nextVersion(content, force);
+        if (version > 0 && !write(content, encodeSnapshot(), version)) {
+            plugin.disable();
+        }
+    }
+
+    /**
+     * Assigns the next version to the content, unless the content is already queued or written
+     *
+     * @param content serialized content of the config
+     * @param force   whether the content gets a version even if it did not change
+     * @return version of the content or 0 if it does not have to be written
+     */
+    private long nextVersion(@NotNull String content, boolean force) {
+        synchronized (versionLock) {
+            if (!force && content.equals(queuedContent)) {
+                return 0;
+            }
+            queuedContent = content;
+            return ++contentVersion;
+        }
+    }
+
+    /**
+     * @param content content of the config file
+     * @return whether the config file holds the content of the last successful save of this config
+     */
+    private boolean writtenByThis(@NotNull String content) {
+        synchronized (versionLock) {
+            return content.equals(writtenContent);
+        }
+    }
+
+    private boolean write(@NotNull String content, @Nullable byte[] snapshotBody, long version) {
+        synchronized (fileLock) {
+            synchronized (versionLock) {
+                if (version <= writtenVersion) {
+                    return true; // a newer version has already been written
+                }
+            }
+            try {
+                writeAtomically(content);
+                synchronized (versionLock) { // only a successful write counts as saved
+                    writtenVersion = version;
+                    writtenContent = content;
+                }
+                if (snapshotBody != null) {
+                    writeSnapshot(snapshotBody); // stamped with the new modification time of the config file
+                }
+                return true;
+            } catch (IOException e) {
+                synchronized (versionLock) {
+                    writtenContent = null; // the config file might be left in any state
+                    if (version == contentVersion) {
+                        queuedContent = null; // the next save writes the content again
+                    }
+                }
+                plugin.getLogger().log(Level.SEVERE, "Failed to save config file \"%s\"".formatted(file.getName()), e);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Writes the content to a temporary file which then replaces the config file atomically, so a crash never leaves
+     * a partially written config file<br>
+     * The replaced config file is kept as backup.
+     *
+     * @param content content to write
+     * @throws IOException if the content could not be written
+     */
+    private void writeAtomically(@NotNull String content) throws IOException {
+        var path = file.toPath();
+        var directory = file.getAbsoluteFile().getParentFile().toPath();
+        Files.createDirectories(directory);
+
+        try (var channel = FileChannel.open(temporaryFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            var buffer = StandardCharsets.UTF_8.encode(content);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+
+        if (fileValid && file.length() > 0) {
+            Files.deleteIfExists(backupFile.toPath());
+            try {
+                Files.createLink(backupFile.toPath(), path); // a hard link keeps the old content without copying it
+            } catch (IOException | UnsupportedOperationException e) {
+                Files.copy(path, backupFile.toPath());
+            }
+        }
+        Files.move(temporaryFile.toPath(), path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        fileValid = true;
+
+        try (var directoryChannel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            directoryChannel.force(true); // makes the rename durable
+        } catch (IOException ignored) {
+            // not supported on every platform
+        }
+    }
+
+    /**
+     * Encodes the values for the snapshot, must be called on the main thread
+     *
+     * @return encoded values or null if the config does not use a snapshot or contains values which cannot be encoded
+     */
+    @Nullable
+    private byte[] encodeSnapshot() {
+        if (snapshotFile == null) {
+            return null;
+        }
         try {
-            save(file);
-        } catch (IOException e) {
-            plugin.getLogger().log(Level.SEVERE, "Failed to save config file \"%s\"".formatted(file.getName()), e);
-            plugin.getServer().getPluginManager().disablePlugin(plugin);
+            var snapshotBody = ConfigSnapshot.encode(this);
+            snapshotUnsupported = false;
+            return snapshotBody;
+        } catch (UnsupportedOperationException e) {
+            if (!snapshotUnsupported) { // logged once until the config can be encoded again, not on every save
+                snapshotUnsupported = true;
+                plugin.getLogger().warning("Config file \"%s\" cannot be saved as snapshot: %s".formatted(file.getName(), e.getMessage()));
+            }
+            return null;
         }
     }
 
+    private void writeSnapshot(@NotNull byte[] snapshotBody) {
+        synchronized (fileLock) {
+            try {
+                ConfigSnapshot.write(snapshotFile, file, snapshotBody);
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.WARNING, "Failed to save snapshot of config file \"%s\"".formatted(file.getName()), e);
+            }
+        }
+    }
+
+    /**
+     * @return number of changes made to this config, used to detect changes without comparing the values
+     */
+    public long modifications() {
+        return modifications;
+    }
+
     @NotNull
     public File file() {
         return file;
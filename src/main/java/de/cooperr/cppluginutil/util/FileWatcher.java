@@ -0,0 +1,117 @@
+package de.cooperr.cppluginutil.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Watches a directory on a daemon thread and reports changed files once no further change occurred for the debounce time
+ */
+final class FileWatcher implements Closeable {
+
+    private final Path directory;
+    private final Predicate<Path> filter;
+    private final Duration debounce;
+    private final Consumer<Set<Path>> onChange;
+    private final Logger logger;
+
+    private final WatchService watchService;
+    private final Thread thread;
+
+    /**
+     * Starts watching the directory
+     *
+     * @param name      name of the watcher thread
+     * @param directory directory to watch
+     * @param filter    filter for the changed files which should be reported
+     * @param debounce  time without changes after which the changed files are reported
+     * @param onChange  callback receiving the changed files, called on the watcher thread
+     * @param logger    logger to report errors of the callback
+     * @throws IOException if the directory cannot be watched
+     */
+    FileWatcher(@NotNull String name, @NotNull Path directory, @NotNull Predicate<Path> filter, @NotNull Duration debounce,
+                @NotNull Consumer<Set<Path>> onChange, @NotNull Logger logger) throws IOException {
+        this.directory = directory;
+        this.filter = filter;
+        this.debounce = debounce;
+        this.onChange = onChange;
+        this.logger = logger;
+
+        this.watchService = FileSystems.getDefault().newWatchService();
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE);
+
+        this.thread = new Thread(this::watch, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                var changedFiles = new HashSet<Path>();
+                collect(watchService.take(), changedFiles);
+
+                // editors often write a file several times, so wait until the directory is quiet
+                WatchKey key;
+                while ((key = watchService.poll(debounce.toMillis(), TimeUnit.MILLISECONDS)) != null) {
+                    collect(key, changedFiles);
+                }
+
+                if (!changedFiles.isEmpty()) {
+                    try {
+                        onChange.accept(changedFiles);
+                    } catch (RuntimeException e) {
+                        logger.log(Level.SEVERE, "Failed to handle changes in directory \"%s\"".formatted(directory), e);
+                    }
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException ignored) {
+            // the watcher was closed
+        }
+    }
+
+    private void collect(@NotNull WatchKey key, @NotNull Set<Path> changedFiles) {
+        for (var event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                changedFiles.add(directory); // events were lost, so everything may have changed
+            } else if (event.context() instanceof Path path && filter.test(path)) {
+                changedFiles.add(directory.resolve(path));
+            }
+        }
+        key.reset();
+    }
+
+    /**
+     * Stops watching the directory
+     */
+    @Override
+    public void close() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to close watcher of directory \"%s\"".formatted(directory), e);
+        }
+        thread.interrupt();
+    }
+
+    @NotNull
+    Path directory() {
+        return directory;
+    }
+}
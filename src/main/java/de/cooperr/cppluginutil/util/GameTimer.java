@@ -0,0 +1,279 @@
+package de.cooperr.cppluginutil.util;
+
+import net.kyori.adventure.audience.Audience;
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.format.NamedTextColor;
+import net.kyori.adventure.text.format.Style;
+import net.kyori.adventure.text.format.TextDecoration;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Timer driven by a {@link TimerEngine} which counts up or down in seconds<br>
+ * Must only be used on the main thread.
+ */
+public class GameTimer {
+
+    private static final int TICKS_PER_SECOND = 20;
+    private static final Style TIME_STYLE = Style.style(NamedTextColor.GOLD, TextDecoration.BOLD);
+
+    private final TimerEngine engine;
+    private final String id;
+    private final Supplier<? extends Collection<? extends Player>> audience;
+
+    private final TreeMap<Long, List<Consumer<GameTimer>>> thresholds = new TreeMap<>();
+    private final List<Consumer<GameTimer>> expiryCallbacks = new ArrayList<>();
+    private final List<TimingWheel.Entry<Runnable>> scheduledEvents = new ArrayList<>();
+    private final StringBuilder timeBuilder = new StringBuilder(16);
+
+    private Direction direction = Direction.UP;
+    private boolean display = true;
+    private boolean running = false;
+    private long ticks = 0; // elapsed ticks when counting up, remaining ticks when counting down
+    private long startTick;
+
+    private TimingWheel.Entry<Runnable> displayEvent;
+
+    private Component renderedComponent;
+    private long renderedTime;
+
+    GameTimer(@NotNull TimerEngine engine, @NotNull String id, @NotNull Supplier<? extends Collection<? extends Player>> audience) {
+        this.engine = engine;
+        this.id = id;
+        this.audience = audience;
+    }
+
+    /**
+     * Starts or resumes the timer if it is not running
+     *
+     * @return this timer
+     */
+    @NotNull
+    public GameTimer start() {
+        if (running || (direction == Direction.DOWN && ticks <= 0)) {
+            return this;
+        }
+
+        running = true;
+        startTick = engine.currentTick();
+        engine.startTask();
+        scheduleEvents();
+        return this;
+    }
+
+    /**
+     * Pauses the timer if it is running, the time is kept
+     *
+     * @return this timer
+     */
+    @NotNull
+    public GameTimer pause() {
+        if (!running) {
+            return this;
+        }
+
+        ticks = currentTicks();
+        running = false;
+        cancelEvents();
+        return this;
+    }
+
+    /**
+     * Lets the timer count up from the given time
+     *
+     * @param seconds time from which to count up
+     * @return this timer
+     */
+    @NotNull
+    public GameTimer countUp(long seconds) {
+        return set(Direction.UP, seconds);
+    }
+
+    /**
+     * Lets the timer count down from the given time, it expires once it reaches zero
+     *
+     * @param seconds time from which to count down
+     * @return this timer
+     * @see GameTimer#onExpire(Consumer)
+     */
+    @NotNull
+    public GameTimer countDown(long seconds) {
+        return set(Direction.DOWN, seconds);
+    }
+
+    /**
+     * Registers a callback which is called when the timer reaches the given time
+     *
+     * @param seconds  time at which the callback is called
+     * @param callback callback to call
+     * @return this timer
+     */
+    @NotNull
+    public GameTimer onThreshold(long seconds, @NotNull Consumer<GameTimer> callback) {
+        thresholds.computeIfAbsent(seconds, threshold -> new ArrayList<>()).add(callback);
+        reschedule();
+        return this;
+    }
+
+    /**
+     * Registers a callback which is called when the timer counting down reaches zero
+     *
+     * @param callback callback to call
+     * @return this timer
+     */
+    @NotNull
+    public GameTimer onExpire(@NotNull Consumer<GameTimer> callback) {
+        expiryCallbacks.add(callback);
+        return this;
+    }
+
+    /**
+     * Sets whether the time should be shown in the action bar of the audience every second
+     *
+     * @param display whether to show the time
+     * @return this timer
+     */
+    @NotNull
+    public GameTimer display(boolean display) {
+        this.display = display;
+        reschedule();
+        return this;
+    }
+
+    @NotNull
+    private GameTimer set(@NotNull Direction direction, long seconds) {
+        this.direction = direction;
+        ticks = seconds * TICKS_PER_SECOND;
+        startTick = engine.currentTick();
+        if (running) {
+            cancelEvents();
+            scheduleEvents();
+        }
+        return this;
+    }
+
+    private void reschedule() {
+        if (running) {
+            ticks = currentTicks();
+            startTick = engine.currentTick();
+            cancelEvents();
+            scheduleEvents();
+        }
+    }
+
+    /**
+     * Schedules the upcoming thresholds, the expiry and the display of this timer in the timing wheel
+     */
+    private void scheduleEvents() {
+        var upcomingThresholds = direction == Direction.UP ?
+                thresholds.tailMap(Math.floorDiv(ticks, TICKS_PER_SECOND), false) :
+                thresholds.headMap(Math.floorDiv(ticks - 1, TICKS_PER_SECOND), true);
+        for (var threshold : upcomingThresholds.entrySet()) {
+            var delay = Math.abs(threshold.getKey() * TICKS_PER_SECOND - ticks);
+            scheduledEvents.add(engine.schedule(startTick + delay, () -> threshold.getValue().forEach(callback -> callback.accept(this))));
+        }
+        if (direction == Direction.DOWN) {
+            scheduledEvents.add(engine.schedule(startTick + ticks, this::expire));
+        }
+        if (display) {
+            scheduleDisplay(startTick + TICKS_PER_SECOND - Math.floorMod(direction == Direction.UP ? ticks : -ticks, TICKS_PER_SECOND));
+        }
+    }
+
+    private void scheduleDisplay(long dueTick) {
+        displayEvent = engine.schedule(dueTick, () -> {
+            Audience.audience(audience.get()).sendActionBar(timeComponent());
+            scheduleDisplay(engine.currentTick() + TICKS_PER_SECOND);
+        });
+    }
+
+    private void cancelEvents() {
+        scheduledEvents.forEach(engine::cancel);
+        scheduledEvents.clear();
+        if (displayEvent != null) {
+            engine.cancel(displayEvent);
+            displayEvent = null;
+        }
+    }
+
+    private void expire() {
+        ticks = 0;
+        running = false;
+        // events of this tick still run, e.g. the callbacks of the threshold zero, only later events are cancelled
+        var currentTick = engine.currentTick();
+        scheduledEvents.stream().filter(event -> event.dueTick() > currentTick).forEach(engine::cancel);
+        scheduledEvents.clear();
+        if (displayEvent != null) {
+            engine.cancel(displayEvent);
+            displayEvent = null;
+        }
+        if (display) {
+            Audience.audience(audience.get()).sendActionBar(timeComponent());
+        }
+        expiryCallbacks.forEach(callback -> callback.accept(this));
+    }
+
+    private long currentTicks() {
+        if (!running) {
+            return ticks;
+        }
+        var elapsedTicks = engine.currentTick() - startTick;
+        return direction == Direction.UP ? ticks + elapsedTicks : Math.max(ticks - elapsedTicks, 0);
+    }
+
+    /**
+     * Renders the current time, the component is only rebuilt if the time changed
+     *
+     * @return current time as text component
+     */
+    @NotNull
+    public Component timeComponent() {
+        var time = time();
+        if (renderedComponent == null || renderedTime != time) {
+            timeBuilder.setLength(0);
+            renderedComponent = Component.text(Timer.formatTime(time, timeBuilder).toString(), TIME_STYLE);
+            renderedTime = time;
+        }
+        return renderedComponent;
+    }
+
+    /**
+     * @return shown time in seconds, rounded up when counting down
+     */
+    public long time() {
+        var currentTicks = currentTicks();
+        return direction == Direction.UP ? currentTicks / TICKS_PER_SECOND : (currentTicks + TICKS_PER_SECOND - 1) / TICKS_PER_SECOND;
+    }
+
+    @NotNull
+    public String id() {
+        return id;
+    }
+
+    @NotNull
+    public Direction direction() {
+        return direction;
+    }
+
+    public boolean running() {
+        return running;
+    }
+
+    public boolean display() {
+        return display;
+    }
+
+    /**
+     * Direction in which a timer counts
+     */
+    public enum Direction {
+        UP, DOWN
+    }
+}
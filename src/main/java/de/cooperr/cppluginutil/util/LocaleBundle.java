@@ -0,0 +1,71 @@
+package de.cooperr.cppluginutil.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Immutable table of all compiled messages of one locale, safe to be read by any thread without locking
+ */
+final class LocaleBundle {
+
+    private final Locale locale;
+    private final Map<String, MessageTemplate> templates;
+
+    private LocaleBundle(@NotNull Locale locale, @NotNull Map<String, MessageTemplate> templates) {
+        this.locale = locale;
+        this.templates = Map.copyOf(templates);
+    }
+
+    /**
+     * Creates a bundle without any messages, used if the properties of a locale could not be loaded
+     *
+     * @param locale locale of the bundle
+     * @return empty bundle
+     */
+    @NotNull
+    static LocaleBundle empty(@NotNull Locale locale) {
+        return new LocaleBundle(locale, Map.of());
+    }
+
+    /**
+     * Compiles every message of the properties into a message template
+     *
+     * @param locale     locale of the properties
+     * @param properties properties containing the messages
+     * @param logger     logger to report messages which are not formatted correctly
+     * @return compiled bundle
+     */
+    @NotNull
+    static LocaleBundle compile(@NotNull Locale locale, @NotNull Properties properties, @NotNull Logger logger) {
+        var templates = new HashMap<String, MessageTemplate>();
+        for (var key : properties.stringPropertyNames()) {
+            try {
+                templates.put(key, MessageTemplate.compile(properties.getProperty(key), locale));
+            } catch (IllegalArgumentException e) {
+                logger.log(Level.SEVERE, "The message of the key \"%s\" is not formatted correctly".formatted(key), e);
+            }
+        }
+        return new LocaleBundle(locale, templates);
+    }
+
+    @Nullable
+    MessageTemplate template(@NotNull String key) {
+        return templates.get(key);
+    }
+
+    @NotNull
+    Locale locale() {
+        return locale;
+    }
+
+    int size() {
+        return templates.size();
+    }
+}
@@ -0,0 +1,132 @@
+package de.cooperr.cppluginutil.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Store of all locale bundles of a {@link Localizer}<br>
+ * Bundles are loaded lazily the first time their locale is seen and the fallback chain
+ * ({@code de_AT -> de -> default}) is only resolved once per client locale.
+ */
+final class LocaleBundleStore {
+
+    private final Logger logger;
+
+    private final Locale defaultLocale;
+    private final Map<Locale, PropertiesSource> sources;
+
+    private final Map<Locale, LocaleBundle> bundles = new ConcurrentHashMap<>();
+    private final Map<Locale, LocaleBundle[]> chains = new ConcurrentHashMap<>();
+    private final Map<List<LocaleBundle>, LocaleBundle[]> distinctChains = new ConcurrentHashMap<>();
+    private final LocaleBundle[] defaultChain;
+
+    /**
+     * Creates the store and loads the bundle of the default locale
+     *
+     * @param logger        logger to report loading errors
+     * @param defaultLocale fallback locale which ends every chain
+     * @param sources       sources of the properties of every supported locale
+     */
+    LocaleBundleStore(@NotNull Logger logger, @NotNull Locale defaultLocale, @NotNull Map<Locale, PropertiesSource> sources) {
+        this.logger = logger;
+        this.defaultLocale = defaultLocale;
+        this.sources = Map.copyOf(sources);
+
+        if (!sources.containsKey(defaultLocale)) {
+            logger.severe("There are no language properties for the default locale \"%s\"".formatted(defaultLocale));
+        }
+        this.defaultChain = new LocaleBundle[]{bundle(defaultLocale)};
+        distinctChains.put(List.of(defaultChain), defaultChain);
+    }
+
+    /**
+     * Resolves the fallback chain of the locale, e.g. {@code de_AT -> de -> default}<br>
+     * Locales resolving to the same bundles share the same chain instance, so chains can be compared by identity.
+     *
+     * @param locale locale of the client, null for the default locale
+     * @return bundles to search for a message in order
+     */
+    @NotNull
+    LocaleBundle[] chain(@Nullable Locale locale) {
+        if (locale == null) {
+            return defaultChain;
+        }
+        var chain = chains.get(locale);
+        return chain != null ? chain : chains.computeIfAbsent(locale, this::resolveChain);
+    }
+
+    /**
+     * Gets the bundle of the locale and loads it if it was not loaded yet
+     *
+     * @param locale locale of the bundle
+     * @return bundle of the locale, empty if it could not be loaded
+     */
+    @NotNull
+    LocaleBundle bundle(@NotNull Locale locale) {
+        var bundle = bundles.get(locale);
+        return bundle != null ? bundle : bundles.computeIfAbsent(locale, this::load);
+    }
+
+    @NotNull
+    Set<Locale> supportedLocales() {
+        return sources.keySet();
+    }
+
+    @NotNull
+    Set<Locale> loadedLocales() {
+        return Set.copyOf(bundles.keySet());
+    }
+
+    @NotNull
+    private LocaleBundle[] resolveChain(@NotNull Locale locale) {
+        var candidates = new ArrayList<Locale>(3);
+        if (!locale.getCountry().isEmpty()) {
+            candidates.add(Locale.of(locale.getLanguage(), locale.getCountry()));
+        }
+        candidates.add(Locale.of(locale.getLanguage()));
+        candidates.add(defaultLocale);
+
+        var chain = new ArrayList<LocaleBundle>(candidates.size());
+        for (var candidate : candidates) {
+            if (sources.containsKey(candidate) && chain.stream().noneMatch(bundle -> bundle.locale().equals(candidate))) {
+                chain.add(bundle(candidate));
+            }
+        }
+        return chain.isEmpty() ? defaultChain : distinctChains.computeIfAbsent(List.copyOf(chain), bundles -> bundles.toArray(LocaleBundle[]::new));
+    }
+
+    @NotNull
+    private LocaleBundle load(@NotNull Locale locale) {
+        var source = sources.get(locale);
+        if (source == null) {
+            return LocaleBundle.empty(locale);
+        }
+        try {
+            return LocaleBundle.compile(locale, source.load(), logger);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed to load language properties of locale \"%s\"".formatted(locale), e);
+            return LocaleBundle.empty(locale);
+        }
+    }
+
+    /**
+     * Source of the properties of a locale, only invoked once the locale is needed
+     */
+    @FunctionalInterface
+    interface PropertiesSource {
+
+        @NotNull
+        Properties load() throws IOException;
+    }
+}
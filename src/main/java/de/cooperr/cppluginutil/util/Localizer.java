@@ -1,18 +1,32 @@
 package de.cooperr.cppluginutil.util;
 
 import de.cooperr.cppluginutil.base.PaperPlugin;
+import net.kyori.adventure.audience.Audience;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.TextComponent;
 import net.kyori.adventure.text.format.NamedTextColor;
+import net.kyori.adventure.title.Title;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.text.MessageFormat;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Level;
 
 /**
@@ -24,7 +38,12 @@ public class Localizer {
     private final PaperPlugin plugin;
 
     private final Locale defaultLocale;
-    private final Map<Locale, Properties> languageProperties;
+    private final Map<Locale, LocaleBundleStore.PropertiesSource> sources = new HashMap<>();
+    private final Object reloadLock = new Object();
+
+    private volatile LocaleBundleStore bundles;
+    private volatile File overrideDirectory;
+    private FileWatcher overrideWatcher;
 
     /**
      * Sets this localizer up with the given language properties and the default (fallback) locale
@@ -37,39 +56,149 @@ public class Localizer {
     public Localizer(@NotNull PaperPlugin plugin, @NotNull Locale defaultLocale, @NotNull Map<Locale, Properties> languageProperties) {
         this.plugin = plugin;
         this.defaultLocale = defaultLocale;
-        this.languageProperties = languageProperties;
+
+        languageProperties.forEach((locale, properties) -> sources.put(locale, () -> properties));
+        this.bundles = new LocaleBundleStore(plugin.getLogger(), defaultLocale, sources);
     }
 
     /**
-     * Sets this localizer up with the given language property file names and the default (fallback) locale
+     * Sets this localizer up with the given language property file names and the default (fallback) locale<br>
+     * The property files are only loaded once their locale is needed, except for the default locale.
      *
      * @param plugin            plugin to which this localizer should belong
      * @param defaultLocale     fallback locale if a query with a non-supported locale occurs<br>
      *                          (this means that the languageProperties must contain this locale)
      * @param propertyFileNames property file names named according to the scheme:<br>
-     *                          {@code contentType_languageCode.properties} (optionally with parent directories except<br>
-     *                          {@code '/resources'}; directories without {@code '.'})
+     *                          {@code contentType_languageCode.properties} or {@code contentType_languageCode_countryCode.properties}<br>
+     *                          (optionally with parent directories except {@code '/resources'}; directories without {@code '.'})
      */
     public Localizer(@NotNull PaperPlugin plugin, @NotNull Locale defaultLocale, @NotNull String... propertyFileNames) {
         this.plugin = plugin;
         this.defaultLocale = defaultLocale;
-        this.languageProperties = new HashMap<>();
 
         for (var propertyFileName : propertyFileNames) {
             try {
-                var property = new Properties();
-                var propertyLocale = Locale.of(propertyFileName.split("_")[1].substring(0, 2));
-
-                property.load(plugin.resourceReader(propertyFileName));
-                languageProperties.put(propertyLocale, property);
-            } catch (IOException e) {
-                plugin.getLogger().log(Level.SEVERE, "Failed to load property file \"%s\"".formatted(propertyFileName), e);
-                plugin.getServer().getPluginManager().disablePlugin(plugin);
+                sources.put(propertyLocale(propertyFileName), () -> loadProperties(propertyFileName));
             } catch (IndexOutOfBoundsException e) {
                 plugin.getLogger().log(Level.SEVERE, "Property file \"%s\" is not named correctly".formatted(propertyFileName), e);
-                plugin.getServer().getPluginManager().disablePlugin(plugin);
+                plugin.disable();
             }
         }
+        this.bundles = new LocaleBundleStore(plugin.getLogger(), defaultLocale, sources);
+
+        if (bundles.bundle(defaultLocale).size() == 0) {
+            plugin.getLogger().severe("Failed to load the language properties of the default locale \"%s\"".formatted(defaultLocale));
+            plugin.disable();
+        }
+    }
+
+    /**
+     * Parses the locale of a property file name, e.g. {@code lang/messages_de_AT.properties -> de_AT}
+     *
+     * @param propertyFileName property file name
+     * @return locale of the property file
+     * @throws IndexOutOfBoundsException if the property file is not named correctly
+     */
+    @NotNull
+    private static Locale propertyLocale(@NotNull String propertyFileName) {
+        var name = propertyFileName.substring(propertyFileName.lastIndexOf('/') + 1);
+        var localeParts = name.substring(0, name.indexOf('.')).split("_");
+
+        var language = localeParts[1].substring(0, 2);
+        return localeParts.length > 2 ? Locale.of(language, localeParts[2]) : Locale.of(language);
+    }
+
+    @NotNull
+    private Properties loadProperties(@NotNull String propertyFileName) throws IOException {
+        var properties = new Properties();
+
+        var reader = plugin.resourceReader(propertyFileName);
+        // the reader is null if the file is missing in the plugin jar
+        if (reader != null) {
+            try (reader) {
+                properties.load(reader);
+            }
+        }
+
+        // override files only have to contain the changed messages
+        var overrideDirectory = this.overrideDirectory;
+        var overrideFile = overrideDirectory == null ? null :
+                new File(overrideDirectory, propertyFileName.substring(propertyFileName.lastIndexOf('/') + 1));
+        if (overrideFile != null && overrideFile.isFile()) {
+            try (var overrideReader = Files.newBufferedReader(overrideFile.toPath(), StandardCharsets.UTF_8)) {
+                properties.load(overrideReader);
+            }
+        } else if (reader == null) {
+            throw new FileNotFoundException("Property file \"%s\" does not exist".formatted(propertyFileName));
+        }
+        return properties;
+    }
+
+    /**
+     * Reloads all language properties on a background thread<br>
+     * The messages are compiled before they replace the current ones at once, so messages which are being localized
+     * meanwhile still use the complete old properties.
+     *
+     * @return future which completes once the new properties are in use
+     */
+    @NotNull
+    public CompletableFuture<Void> reload() {
+        return CompletableFuture.runAsync(() -> {
+            synchronized (reloadLock) {
+                var next = new LocaleBundleStore(plugin.getLogger(), defaultLocale, sources);
+                bundles.loadedLocales().forEach(next::bundle); // compile all locales in use before swapping
+                bundles = next;
+            }
+            plugin.getLogger().info("Reloaded language properties");
+        }, runnable -> plugin.getServer().getScheduler().runTaskAsynchronously(plugin, runnable));
+    }
+
+    /**
+     * Sets the directory in the plugin data folder whose property files override the messages of the plugin jar<br>
+     * Override files have the same name as the property files (without parent directories) and are encoded in UTF-8.
+     * Only supported if this localizer was created with property file names.
+     *
+     * @param directoryName name of the directory in the plugin data folder, null to remove the overrides
+     * @return future which completes once the overrides are in use
+     * @see Localizer#reload()
+     */
+    @NotNull
+    public CompletableFuture<Void> overrideDirectory(@Nullable String directoryName) {
+        overrideDirectory = directoryName == null ? null : new File(plugin.getDataFolder(), directoryName);
+        return reload();
+    }
+
+    /**
+     * Watches the override directory and reloads the language properties whenever a property file changes<br>
+     * The watcher has to be stopped when the plugin gets disabled.
+     *
+     * @see Localizer#overrideDirectory(String)
+     * @see Localizer#stopWatching()
+     */
+    public void watchOverrides() {
+        var directory = overrideDirectory;
+        if (directory == null) {
+            throw new IllegalStateException("There is no override directory to watch");
+        }
+
+        stopWatching();
+        try {
+            Files.createDirectories(directory.toPath());
+            overrideWatcher = new FileWatcher(plugin.getName() + " Localizer Watcher", directory.toPath(),
+                    path -> path.toString().endsWith(".properties"), Duration.ofMillis(500), changedFiles -> reload(), plugin.getLogger());
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to watch override directory \"%s\"".formatted(directory.getName()), e);
+        }
+    }
+
+    /**
+     * Stops watching the override directory if it is being watched
+     */
+    public void stopWatching() {
+        if (overrideWatcher != null) {
+            overrideWatcher.close();
+            overrideWatcher = null;
+        }
     }
 
     /**
@@ -82,31 +211,194 @@ public class Localizer {
      */
     @NotNull
     public TextComponent localizeMessage(@NotNull String key, @Nullable Locale locale, @Nullable String... args) {
-        var property = languageProperties.getOrDefault(locale == null ? null : Locale.of(locale.getLanguage()), languageProperties.get(defaultLocale));
-        var message = property.getProperty(key);
-        if (message == null) {
-            plugin.getLogger().severe("The key \"%s\" is not defined in the language properties!".formatted(key));
-            return Component.empty();
+        return render(key, locale, args);
+    }
+
+    /**
+     * Localizes a message with a number as the only argument
+     *
+     * @param key    properties key to identify message to send
+     * @param locale locale in which the message should be sent
+     * @param arg    argument to replace the placeholder {@code {0}} with
+     * @return localized message as text component
+     */
+    @NotNull
+    public TextComponent localizeMessage(@NotNull String key, @Nullable Locale locale, int arg) {
+        return render(key, locale, new Object[]{arg});
+    }
+
+    /**
+     * Localizes a message with a number as the only argument
+     *
+     * @param key    properties key to identify message to send
+     * @param locale locale in which the message should be sent
+     * @param arg    argument to replace the placeholder {@code {0}} with
+     * @return localized message as text component
+     */
+    @NotNull
+    public TextComponent localizeMessage(@NotNull String key, @Nullable Locale locale, long arg) {
+        return render(key, locale, new Object[]{arg});
+    }
+
+    /**
+     * Localizes a message with a component as the only argument<br>
+     * The component keeps its own style and only inherits the color of the message if it has none
+     *
+     * @param key    properties key to identify message to send
+     * @param locale locale in which the message should be sent
+     * @param arg    argument to replace the placeholder {@code {0}} with
+     * @return localized message as text component
+     */
+    @NotNull
+    public TextComponent localizeMessage(@NotNull String key, @Nullable Locale locale, @NotNull Component arg) {
+        return render(key, locale, new Object[]{arg});
+    }
+
+    /**
+     * Localizes a message with arguments of any type ({@link String}, {@link Number} or {@link Component})
+     *
+     * @param key    properties key to identify message to send
+     * @param locale locale in which the message should be sent
+     * @param args   arguments to replace the placeholders with
+     * @return localized message as text component
+     */
+    @NotNull
+    public TextComponent localizeMessage(@NotNull String key, @Nullable Locale locale, @Nullable Object[] args) {
+        return render(key, locale, args);
+    }
+
+    /**
+     * Sends a localized message to the sender in its locale (the default locale for non-players)
+     *
+     * @param sender sender to send the message to
+     * @param key    properties key to identify message to send
+     * @param args   arguments to replace the placeholders with
+     */
+    public void sendMessage(@NotNull CommandSender sender, @NotNull String key, @Nullable Object... args) {
+        sender.sendMessage(render(key, bundles.chain(locale(sender)), args));
+    }
+
+    /**
+     * Broadcasts a localized message to all online players
+     *
+     * @param key  properties key to identify message to send
+     * @param args arguments to replace the placeholders with
+     * @see Localizer#broadcastMessage(Collection, String, Object...)
+     */
+    public void broadcastMessage(@NotNull String key, @Nullable Object... args) {
+        broadcastMessage(plugin.getServer().getOnlinePlayers(), key, args);
+    }
+
+    /**
+     * Broadcasts a localized message to the audience<br>
+     * The message is only localized once per locale and then sent to everyone of this locale.
+     *
+     * @param audience senders to send the message to
+     * @param key      properties key to identify message to send
+     * @param args     arguments to replace the placeholders with
+     */
+    public void broadcastMessage(@NotNull Collection<? extends CommandSender> audience, @NotNull String key, @Nullable Object... args) {
+        groupByLocale(audience).forEach((chain, senders) -> Audience.audience(senders).sendMessage(render(key, chain, args)));
+    }
+
+    /**
+     * Shows a localized title to all online players
+     *
+     * @param titleKey    properties key to identify the title
+     * @param subtitleKey properties key to identify the subtitle
+     * @param times       times of the title
+     * @param args        arguments to replace the placeholders of the title and the subtitle with
+     * @see Localizer#broadcastTitle(Collection, String, String, Title.Times, Object...)
+     */
+    public void broadcastTitle(@NotNull String titleKey, @NotNull String subtitleKey, @NotNull Title.Times times, @Nullable Object... args) {
+        broadcastTitle(plugin.getServer().getOnlinePlayers(), titleKey, subtitleKey, times, args);
+    }
+
+    /**
+     * Shows a localized title to the audience<br>
+     * The title is only localized once per locale and then shown to everyone of this locale.
+     *
+     * @param audience    senders to show the title to
+     * @param titleKey    properties key to identify the title
+     * @param subtitleKey properties key to identify the subtitle
+     * @param times       times of the title
+     * @param args        arguments to replace the placeholders of the title and the subtitle with
+     */
+    public void broadcastTitle(@NotNull Collection<? extends CommandSender> audience, @NotNull String titleKey, @NotNull String subtitleKey,
+                               @NotNull Title.Times times, @Nullable Object... args) {
+        groupByLocale(audience).forEach((chain, senders) -> Audience.audience(senders).showTitle(
+                Title.title(render(titleKey, chain, args), render(subtitleKey, chain, args), times)));
+    }
+
+    /**
+     * Sends a localized action bar to all online players
+     *
+     * @param key  properties key to identify the action bar
+     * @param args arguments to replace the placeholders with
+     * @see Localizer#broadcastActionBar(Collection, String, Object...)
+     */
+    public void broadcastActionBar(@NotNull String key, @Nullable Object... args) {
+        broadcastActionBar(plugin.getServer().getOnlinePlayers(), key, args);
+    }
+
+    /**
+     * Sends a localized action bar to the audience<br>
+     * The action bar is only localized once per locale and then sent to everyone of this locale.
+     *
+     * @param audience senders to send the action bar to
+     * @param key      properties key to identify the action bar
+     * @param args     arguments to replace the placeholders with
+     */
+    public void broadcastActionBar(@NotNull Collection<? extends CommandSender> audience, @NotNull String key, @Nullable Object... args) {
+        groupByLocale(audience).forEach((chain, senders) -> Audience.audience(senders).sendActionBar(render(key, chain, args)));
+    }
+
+    /**
+     * Groups the audience by the fallback chain of their locales
+     *
+     * @param audience senders to group
+     * @return senders grouped by their fallback chain
+     */
+    @NotNull
+    private Map<LocaleBundle[], List<CommandSender>> groupByLocale(@NotNull Collection<? extends CommandSender> audience) {
+        var bundles = this.bundles; // use the same snapshot for the whole audience
+        var groups = new IdentityHashMap<LocaleBundle[], List<CommandSender>>();
+        for (var sender : audience) {
+            groups.computeIfAbsent(bundles.chain(locale(sender)), chain -> new ArrayList<>()).add(sender);
         }
-        message = MessageFormat.format(message, (Object[]) args);
-
-        var component = Component.empty();
-
-        var messageParts = message.split("%");
-        for (var i = 0; i < messageParts.length; i++) {
-            // checks if the part is a color and then colors the following text until a new color is defined
-            if (messageParts[i].startsWith("&")) {
-                if (messageParts.length <= i + 1) {
-                    continue; // continue if there is no text after the color
-                }
-                var color = NamedTextColor.NAMES.value(messageParts[i].substring(1).toLowerCase());
-                component = component.append(Component.text(messageParts[i + 1], color));
-                messageParts[i + 1] = "";
-            } else {
-                component = component.append(Component.text(messageParts[i]));
+        return groups;
+    }
+
+    @Nullable
+    private static Locale locale(@NotNull CommandSender sender) {
+        return sender instanceof Player player ? player.locale() : null;
+    }
+
+    @NotNull
+    private TextComponent render(@NotNull String key, @Nullable Locale locale, @Nullable Object[] args) {
+        return render(key, bundles.chain(locale), args);
+    }
+
+    @NotNull
+    private TextComponent render(@NotNull String key, @NotNull LocaleBundle[] chain, @Nullable Object[] args) {
+        for (var bundle : chain) {
+            var template = bundle.template(key);
+            if (template != null) {
+                return template.render(args);
             }
         }
-        return component;
+        plugin.getLogger().severe("The key \"%s\" is not defined in the language properties!".formatted(key));
+        return Component.empty();
+    }
+
+    /**
+     * Checks whether the key is defined in the language properties of the default locale
+     *
+     * @param key properties key to check
+     * @return whether the key is defined
+     */
+    public boolean containsKey(@NotNull String key) {
+        return bundles.bundle(defaultLocale).template(key) != null;
     }
 
     @NotNull
@@ -114,8 +406,19 @@ public class Localizer {
         return defaultLocale;
     }
 
+    /**
+     * @return all locales for which language properties exist
+     */
+    @NotNull
+    public Set<Locale> supportedLocales() {
+        return bundles.supportedLocales();
+    }
+
+    /**
+     * @return all locales whose language properties have been loaded so far
+     */
     @NotNull
-    public Map<Locale, Properties> languageProperties() {
-        return languageProperties;
+    public Set<Locale> loadedLocales() {
+        return bundles.loadedLocales();
     }
 }
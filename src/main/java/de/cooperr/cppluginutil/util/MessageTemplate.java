@@ -0,0 +1,211 @@
+package de.cooperr.cppluginutil.util;
+
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.TextComponent;
+import net.kyori.adventure.text.format.NamedTextColor;
+import net.kyori.adventure.text.format.TextColor;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Precompiled localized message consisting of colored segments of literals and placeholders.<br>
+ * The pattern is parsed once, so rendering only has to substitute the arguments.
+ *
+ * @see Localizer#localizeMessage(String, Locale, String...)
+ */
+final class MessageTemplate {
+
+    private final Segment[] segments;
+    private final TextComponent constant;
+
+    private MessageTemplate(@NotNull Segment[] segments) {
+        this.segments = segments;
+
+        for (var segment : segments) {
+            if (segment.hasPlaceholders()) {
+                this.constant = null;
+                return;
+            }
+        }
+        this.constant = render(null); // messages without placeholders are rendered only once
+    }
+
+    /**
+     * Compiles the message which may contain colors ({@literal %&}COLOR{@literal %}Colored text)
+     * and {@link MessageFormat} placeholders
+     *
+     * @param message message to compile
+     * @param locale  locale used by placeholders with a format type, e.g. {@code {0,number,#.##}}
+     * @return compiled message template
+     * @throws IllegalArgumentException if a placeholder of the message is invalid
+     */
+    @NotNull
+    static MessageTemplate compile(@NotNull String message, @NotNull Locale locale) {
+        var segments = new ArrayList<Segment>();
+
+        var messageParts = message.split("%");
+        for (var i = 0; i < messageParts.length; i++) {
+            // checks if the part is a color and then colors the following text until a new color is defined
+            if (messageParts[i].startsWith("&")) {
+                if (messageParts.length <= i + 1) {
+                    continue; // continue if there is no text after the color
+                }
+                var color = NamedTextColor.NAMES.value(messageParts[i].substring(1).toLowerCase());
+                segments.add(Segment.parse(messageParts[++i], color, locale));
+            } else {
+                segments.add(Segment.parse(messageParts[i], null, locale));
+            }
+        }
+        return new MessageTemplate(segments.toArray(Segment[]::new));
+    }
+
+    /**
+     * Renders this template with the given arguments<br>
+     * {@link Component} arguments are inserted as they are, numbers are appended without formatting
+     * unless the placeholder defines a format type
+     *
+     * @param args arguments to replace the placeholders with
+     * @return rendered message as text component
+     */
+    @NotNull
+    TextComponent render(@Nullable Object[] args) {
+        if (constant != null) {
+            return constant;
+        }
+
+        var builder = Component.text();
+        var text = new StringBuilder();
+        for (var segment : segments) {
+            segment.appendTo(builder, text, args);
+        }
+        return builder.build();
+    }
+
+    private record Segment(@Nullable TextColor color, @NotNull Object[] parts) {
+
+        @NotNull
+        static Segment parse(@NotNull String pattern, @Nullable TextColor color, @NotNull Locale locale) {
+            var parts = new ArrayList<>();
+            var literal = new StringBuilder();
+
+            var quoted = false;
+            for (var i = 0; i < pattern.length(); i++) {
+                var c = pattern.charAt(i);
+                if (c == '\'') {
+                    if (i + 1 < pattern.length() && pattern.charAt(i + 1) == '\'') {
+                        literal.append('\'');
+                        i++;
+                    } else {
+                        quoted = !quoted;
+                    }
+                } else if (c == '{' && !quoted) {
+                    var end = placeholderEnd(pattern, i);
+                    if (!literal.isEmpty()) {
+                        parts.add(literal.toString());
+                        literal.setLength(0);
+                    }
+                    parts.add(Placeholder.parse(pattern.substring(i + 1, end), locale));
+                    i = end;
+                } else {
+                    literal.append(c);
+                }
+            }
+            if (!literal.isEmpty()) {
+                parts.add(literal.toString());
+            }
+            return new Segment(color, parts.toArray());
+        }
+
+        private static int placeholderEnd(@NotNull String pattern, int start) {
+            var depth = 0;
+            var quoted = false;
+            for (var i = start + 1; i < pattern.length(); i++) {
+                var c = pattern.charAt(i);
+                if (c == '\'') {
+                    quoted = !quoted;
+                } else if (!quoted && c == '{') {
+                    depth++;
+                } else if (!quoted && c == '}') {
+                    if (depth-- == 0) {
+                        return i;
+                    }
+                }
+            }
+            throw new IllegalArgumentException("Unmatched braces in the pattern \"%s\"".formatted(pattern));
+        }
+
+        boolean hasPlaceholders() {
+            for (var part : parts) {
+                if (part instanceof Placeholder) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void appendTo(@NotNull TextComponent.Builder builder, @NotNull StringBuilder text, @Nullable Object[] args) {
+            for (var part : parts) {
+                if (part instanceof String literal) {
+                    text.append(literal);
+                } else if (((Placeholder) part).argument(args) instanceof Component component) {
+                    flush(builder, text);
+                    builder.append(color == null ? component : component.colorIfAbsent(color));
+                } else {
+                    ((Placeholder) part).appendTo(text, args);
+                }
+            }
+            flush(builder, text);
+        }
+
+        private void flush(@NotNull TextComponent.Builder builder, @NotNull StringBuilder text) {
+            if (text.isEmpty()) {
+                return;
+            }
+            builder.append(Component.text(text.toString(), color));
+            text.setLength(0);
+        }
+    }
+
+    private record Placeholder(int index, @Nullable MessageFormat format) {
+
+        @NotNull
+        static Placeholder parse(@NotNull String placeholder, @NotNull Locale locale) {
+            var separator = placeholder.indexOf(',');
+            var index = separator == -1 ? placeholder : placeholder.substring(0, separator);
+            try {
+                return new Placeholder(Integer.parseInt(index.trim()),
+                        separator == -1 ? null : new MessageFormat("{0" + placeholder.substring(separator) + "}", locale));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Can't parse argument number \"%s\"".formatted(index), e);
+            }
+        }
+
+        @Nullable
+        Object argument(@Nullable Object[] args) {
+            return args == null || index >= args.length ? null : args[index];
+        }
+
+        void appendTo(@NotNull StringBuilder text, @Nullable Object[] args) {
+            if (args == null || index >= args.length) {
+                text.append('{').append(index).append('}'); // same as MessageFormat for missing arguments
+                return;
+            }
+
+            var arg = args[index];
+            if (format != null && arg != null) {
+                synchronized (format) { // formats are not thread safe
+                    text.append(format.format(new Object[]{arg}));
+                }
+            } else if (arg instanceof Integer || arg instanceof Long) {
+                text.append(((Number) arg).longValue());
+            } else {
+                text.append(arg);
+            }
+        }
+    }
+}
@@ -3,6 +3,7 @@ package de.cooperr.cppluginutil.util;
 import de.cooperr.cppluginutil.base.PaperPlugin;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.format.NamedTextColor;
+import net.kyori.adventure.text.format.Style;
 import net.kyori.adventure.text.format.TextDecoration;
 import net.kyori.adventure.title.Title;
 import org.bukkit.scheduler.BukkitTask;
@@ -15,26 +16,50 @@ import java.time.Duration;
  */
 public class Timer {
 
+    private static final Style TIME_STYLE = Style.style(NamedTextColor.GOLD, TextDecoration.BOLD);
+    private static final Title.Times TITLE_TIMES = Title.Times.times(Duration.ofMillis(750), Duration.ofMillis(1250), Duration.ofMillis(750));
+
     private final PaperPlugin plugin;
     private final Localizer localizer;
+    private final boolean wallClock;
+    private final StringBuilder timeBuilder = new StringBuilder(16);
 
     private BukkitTask task;
     private boolean running = false;
     private int time = 0;
 
+    private int startTime;
+    private long startNanos;
+    private long carriedNanos = 0; // part of a second which was not counted when the timer was stopped
+
+    private Component renderedComponent;
+    private int renderedTime;
+
     /**
      * Sets the default value for the timer
      *
      * @param plugin plugin to which the timer task belongs to
      */
     public Timer(@NotNull PaperPlugin plugin) {
+        this(plugin, false);
+    }
+
+    /**
+     * Sets the default value for the timer
+     *
+     * @param plugin    plugin to which the timer task belongs to
+     * @param wallClock whether the time should be measured with the system clock instead of counting server ticks,<br>
+     *                  which keeps the timer accurate when the server lags
+     */
+    public Timer(@NotNull PaperPlugin plugin, boolean wallClock) {
         this.plugin = plugin;
+        this.wallClock = wallClock;
 
         if (plugin.customConfig() == null) {
             this.localizer = null;
 
             plugin.getLogger().severe("Custom Config has to be initialized to use Playtimer");
-            plugin.getServer().getPluginManager().disablePlugin(plugin);
+            plugin.disable();
             return;
         }
         plugin.customConfig().setAndSave("timer.time", 0);
@@ -44,15 +69,15 @@ public class Timer {
             return;
         }
 
-        var defaultProperties = plugin.localizer().languageProperties().get(plugin.localizer().defaultLocale());
-        if (defaultProperties.getProperty("timer.start.message") != null &&
-                defaultProperties.getProperty("timer.start.title") != null &&
-                defaultProperties.getProperty("timer.start.subtitle") != null &&
-                defaultProperties.getProperty("timer.stop.message") != null &&
-                defaultProperties.getProperty("timer.stop.title") != null &&
-                defaultProperties.getProperty("timer.stop.subtitle") != null
+        var localizer = plugin.localizer();
+        if (localizer.containsKey("timer.start.message") &&
+                localizer.containsKey("timer.start.title") &&
+                localizer.containsKey("timer.start.subtitle") &&
+                localizer.containsKey("timer.stop.message") &&
+                localizer.containsKey("timer.stop.title") &&
+                localizer.containsKey("timer.stop.subtitle")
         ) {
-            this.localizer = plugin.localizer();
+            this.localizer = localizer;
         } else {
             this.localizer = null;
             plugin.getLogger().info("Localizer is initialized, but the messages for the timer are not set, using default messages");
@@ -68,28 +93,34 @@ public class Timer {
      */
     @NotNull
     public static String formatTime(long time) {
-        var seconds = time;
-        var minutes = 0;
-        var hours = 0;
-        var days = 0;
-
-        while (seconds >= 60) {
-            minutes++;
-            seconds -= 60;
+        return formatTime(time, new StringBuilder(16)).toString();
+    }
+
+    /**
+     * Appends the given time as a fancy string to the builder
+     *
+     * @param time    time to format
+     * @param builder builder to append the formatted time to
+     * @return the given builder
+     * @see Timer#formatTime(long)
+     */
+    @NotNull
+    public static StringBuilder formatTime(long time, @NotNull StringBuilder builder) {
+        var days = time / 86400;
+        var hours = time / 3600 % 24;
+        var minutes = time / 60 % 60;
+        var seconds = time % 60;
+
+        if (days != 0) {
+            builder.append(days).append("d ");
         }
-        while (minutes >= 60) {
-            hours++;
-            minutes -= 60;
+        if (hours != 0) {
+            builder.append(hours).append("h ");
         }
-        while (hours >= 24) {
-            days++;
-            hours -= 24;
+        if (minutes != 0) {
+            builder.append(minutes).append("m ");
         }
-
-        return (days == 0 ? "" : days + "d ") +
-                (hours == 0 ? "" : hours + "h ") +
-                (minutes == 0 ? "" : minutes + "m ") +
-                seconds + "s";
+        return builder.append(seconds).append('s');
     }
 
     /**
@@ -109,21 +140,50 @@ public class Timer {
                 plugin.getServer().showTitle(Title.title(
                         Component.text("Timer", NamedTextColor.GOLD, TextDecoration.BOLD),
                         Component.text("started", NamedTextColor.GREEN, TextDecoration.BOLD),
-                        Title.Times.times(Duration.ofMillis(750), Duration.ofMillis(1250), Duration.ofMillis(750))));
+                        TITLE_TIMES));
             } else {
-                plugin.getServer().getOnlinePlayers().forEach(onlinePlayer -> {
-                    var locale = onlinePlayer.locale();
-
-                    onlinePlayer.sendMessage(localizer.localizeMessage("timer.start.message", locale));
-                    onlinePlayer.showTitle(Title.title(
-                            localizer.localizeMessage("timer.start.title", locale),
-                            localizer.localizeMessage("timer.start.subtitle", locale),
-                            Title.Times.times(Duration.ofMillis(750), Duration.ofMillis(1250), Duration.ofMillis(750))));
-                });
+                localizer.broadcastMessage("timer.start.message");
+                localizer.broadcastTitle("timer.start.title", "timer.start.subtitle", TITLE_TIMES);
             }
         });
-        task = plugin.getServer().getScheduler().runTaskTimer(plugin, () ->
-                plugin.getServer().sendActionBar(Component.text(formatTime(++time), NamedTextColor.GOLD, TextDecoration.BOLD)), 20, 20);
+        if (wallClock) {
+            startTime = time;
+            startNanos = System.nanoTime() - carriedNanos;
+            task = plugin.getServer().getScheduler().runTaskTimer(plugin, this::updateWallClockTime, 1, 1);
+        } else {
+            task = plugin.getServer().getScheduler().runTaskTimer(plugin, () -> {
+                time++;
+                plugin.getServer().sendActionBar(timeComponent());
+            }, 20, 20);
+        }
+    }
+
+    /**
+     * Updates the time from the system clock and only sends it if the shown second changed
+     */
+    private void updateWallClockTime() {
+        var currentTime = startTime + (int) ((System.nanoTime() - startNanos) / 1_000_000_000L);
+        if (currentTime != time) {
+            time = currentTime;
+            plugin.getServer().sendActionBar(timeComponent());
+        }
+    }
+
+    /**
+     * Renders the current time for the action bar, the component is cached for the shown time and only rebuilt if it changed<br>
+     * Components are immutable, so every newly shown second still allocates its string and its component, once per second
+     * at most. The builder of the string is reused and sending the same time again allocates nothing.
+     *
+     * @return current time as text component
+     */
+    @NotNull
+    private Component timeComponent() {
+        if (renderedComponent == null || renderedTime != time) {
+            timeBuilder.setLength(0);
+            renderedComponent = Component.text(formatTime(time, timeBuilder).toString(), TIME_STYLE);
+            renderedTime = time;
+        }
+        return renderedComponent;
     }
 
     /**
@@ -139,23 +199,22 @@ public class Timer {
         task.cancel();
         running = false;
 
+        if (wallClock) {
+            var elapsedNanos = System.nanoTime() - startNanos;
+            time = startTime + (int) (elapsedNanos / 1_000_000_000L);
+            carriedNanos = reset ? 0 : elapsedNanos % 1_000_000_000L;
+        }
+
         if (localizer == null) {
             plugin.getServer().broadcast(Component.text("Timer stopped! The time is " + formatTime(time) + "!",
                     NamedTextColor.GOLD, TextDecoration.BOLD));
             plugin.getServer().showTitle(Title.title(
                     Component.text("Timer", NamedTextColor.GOLD, TextDecoration.BOLD),
                     Component.text("stopped", NamedTextColor.RED, TextDecoration.BOLD),
-                    Title.Times.times(Duration.ofMillis(750), Duration.ofMillis(1250), Duration.ofMillis(750))));
+                    TITLE_TIMES));
         } else {
-            plugin.getServer().getOnlinePlayers().forEach(onlinePlayer -> {
-                var locale = onlinePlayer.locale();
-
-                onlinePlayer.sendMessage(localizer.localizeMessage("timer.stop.message", locale, formatTime(time)));
-                onlinePlayer.showTitle(Title.title(
-                        localizer.localizeMessage("timer.stop.title", locale),
-                        localizer.localizeMessage("timer.stop.subtitle", locale),
-                        Title.Times.times(Duration.ofMillis(750), Duration.ofMillis(1250), Duration.ofMillis(750))));
-            });
+            localizer.broadcastMessage("timer.stop.message", formatTime(time));
+            localizer.broadcastTitle("timer.stop.title", "timer.stop.subtitle", TITLE_TIMES);
         }
 
         plugin.customConfig().setAndSave("timer.time", reset ? 0 : time);
@@ -169,4 +228,17 @@ public class Timer {
     public int time() {
         return time;
     }
+
+    /**
+     * Sets the time from which the timer continues when it is started the next time
+     *
+     * @param time time in seconds
+     */
+    public void time(int time) {
+        plugin.customConfig().set("timer.time", time);
+    }
+
+    public boolean wallClock() {
+        return wallClock;
+    }
 }
@@ -0,0 +1,326 @@
+package de.cooperr.cppluginutil.util;
+
+import de.cooperr.cppluginutil.base.PaperPlugin;
+import org.bukkit.scheduler.BukkitTask;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+
+/**
+ * Periodically saves the state of all timers of a plugin to a small append-only file, so they can be restored after a crash<br>
+ * The timers are captured on the main thread, the file is written asynchronously. Every capture gets its sequence number
+ * on the main thread, so a capture whose write was delayed behind a newer one is dropped instead of overwriting it.
+ * Every checkpoint is one checksummed frame, so a frame which was only partially written is ignored on recovery.
+ */
+public class TimerCheckpoints {
+
+    private static final int MAGIC = 0x54494D52; // "TIMR"
+    private static final int FRAME_HEADER_SIZE = Integer.BYTES + Long.BYTES + Integer.BYTES;
+    private static final long COMPACT_SIZE = 256 * 1024;
+    private static final String TIMER_ID = "timer";
+
+    private final PaperPlugin plugin;
+
+    private final File file;
+    private final int interval;
+    private final Map<String, Checkpoint> recoveredCheckpoints;
+    private final Object writeLock = new Object();
+
+    private BukkitTask task;
+    private long sequence; // sequence of the latest capture, only changed on the main thread after the recovery
+    private long writtenSequence; // guarded by writeLock
+    private boolean damaged = false; // frames appended after a damaged frame would not be recovered
+
+    /**
+     * Creates the checkpoint file if necessary and recovers the latest checkpoint
+     *
+     * @param plugin   plugin whose timers should be saved
+     * @param fileName filename of the checkpoint file with optionally parent directories (excl. plugin data folder)
+     * @param interval interval between two checkpoints in seconds
+     */
+    public TimerCheckpoints(@NotNull PaperPlugin plugin, @NotNull String fileName, int interval) {
+        this.plugin = plugin;
+        this.file = new File(plugin.getDataFolder(), fileName);
+        this.interval = interval;
+        this.recoveredCheckpoints = recover();
+        this.writtenSequence = sequence;
+    }
+
+    /**
+     * Starts saving checkpoints periodically
+     */
+    public void start() {
+        if (task == null) {
+            task = plugin.getServer().getScheduler().runTaskTimer(plugin, this::checkpoint, interval * 20L, interval * 20L);
+        }
+    }
+
+    /**
+     * Stops saving checkpoints periodically and saves a last checkpoint synchronously
+     */
+    public void stop() {
+        if (task == null) {
+            return;
+        }
+        task.cancel();
+        task = null;
+
+        write(capture());
+    }
+
+    /**
+     * Captures the state of all timers and saves it asynchronously, must be called on the main thread
+     */
+    public void checkpoint() {
+        var frame = capture();
+        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> write(frame));
+    }
+
+    /**
+     * Restores the time of the timer from the recovered checkpoint if it was running when the checkpoint was saved<br>
+     * Has to be called after the timer was created, because creating the timer resets the time.
+     *
+     * @param timer timer to restore
+     * @return whether the time was restored, the timer can then be started again
+     */
+    public boolean restore(@NotNull Timer timer) {
+        var checkpoint = recoveredCheckpoints.get(TIMER_ID);
+        if (checkpoint == null) {
+            return false;
+        }
+        timer.time((int) checkpoint.time());
+        return true;
+    }
+
+    /**
+     * Restores the time of the timer from the recovered checkpoint if there is one and starts it if it was running
+     *
+     * @param timer timer to restore
+     * @return whether there was a checkpoint for the timer
+     */
+    public boolean restore(@NotNull GameTimer timer) {
+        var checkpoint = recoveredCheckpoints.get(timer.id());
+        if (checkpoint == null) {
+            return false;
+        }
+        if (checkpoint.countDown()) {
+            timer.countDown(checkpoint.time());
+        } else {
+            timer.countUp(checkpoint.time());
+        }
+        if (checkpoint.running()) {
+            timer.start();
+        }
+        return true;
+    }
+
+    /**
+     * Captures the state of all timers with the next sequence number, must be called on the main thread
+     *
+     * @return captured frame
+     */
+    @NotNull
+    private Frame capture() {
+        var checkpoints = new ArrayList<Checkpoint>();
+        if (plugin.timer() != null && plugin.timer().running()) { // the time of a stopped timer is saved in the config
+            checkpoints.add(new Checkpoint(TIMER_ID, plugin.timer().time(), false, plugin.timer().running()));
+        }
+        if (plugin.timerEngine() != null) {
+            for (var timer : plugin.timerEngine().timers()) {
+                checkpoints.add(new Checkpoint(timer.id(), timer.time(), timer.direction() == GameTimer.Direction.DOWN, timer.running()));
+            }
+        }
+        return new Frame(++sequence, checkpoints);
+    }
+
+    private void write(@NotNull Frame captured) {
+        synchronized (writeLock) {
+            if (captured.sequence() <= writtenSequence) {
+                return; // a newer capture has already been written
+            }
+            try {
+                var frame = encode(captured.sequence(), captured.checkpoints());
+                Files.createDirectories(file.getParentFile().toPath());
+
+                if (damaged || file.length() + frame.remaining() > COMPACT_SIZE) {
+                    // start a new file with only the latest frame, the old file is replaced atomically
+                    var compactFile = new File(file.getPath() + ".tmp");
+                    try (var channel = FileChannel.open(compactFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                            StandardOpenOption.TRUNCATE_EXISTING)) {
+                        writeFully(channel, frame);
+                    }
+                    Files.move(compactFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    damaged = false;
+                } else {
+                    try (var channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                            StandardOpenOption.APPEND)) {
+                        writeFully(channel, frame);
+                    }
+                }
+                writtenSequence = captured.sequence();
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.SEVERE, "Failed to save timer checkpoint to \"%s\"".formatted(file.getName()), e);
+            }
+        }
+    }
+
+    private static void writeFully(@NotNull FileChannel channel, @NotNull ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+    }
+
+    @NotNull
+    private static ByteBuffer encode(long sequence, @NotNull List<Checkpoint> checkpoints) throws IOException {
+        var payloadStream = new ByteArrayOutputStream();
+        try (var payload = new DataOutputStream(payloadStream)) {
+            payload.writeInt(checkpoints.size());
+            for (var checkpoint : checkpoints) {
+                payload.writeUTF(checkpoint.id());
+                payload.writeLong(checkpoint.time());
+                payload.writeBoolean(checkpoint.countDown());
+                payload.writeBoolean(checkpoint.running());
+            }
+        }
+        var payloadBytes = payloadStream.toByteArray();
+
+        var crc = new CRC32();
+        crc.update(payloadBytes);
+
+        return ByteBuffer.allocate(FRAME_HEADER_SIZE + payloadBytes.length + Integer.BYTES)
+                .putInt(MAGIC)
+                .putLong(sequence)
+                .putInt(payloadBytes.length)
+                .put(payloadBytes)
+                .putInt((int) crc.getValue())
+                .flip();
+    }
+
+    /**
+     * Reads the frame with the highest sequence number, frames after a damaged frame are ignored
+     *
+     * @return recovered checkpoints by timer id
+     */
+    @NotNull
+    private Map<String, Checkpoint> recover() {
+        if (!file.isFile()) {
+            return Map.of();
+        }
+
+        ByteBuffer buffer;
+        try {
+            buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to read timer checkpoints from \"%s\"".formatted(file.getName()), e);
+            return Map.of();
+        }
+
+        Map<String, Checkpoint> latestCheckpoints = Map.of();
+        try {
+            while (buffer.remaining() >= FRAME_HEADER_SIZE) {
+                if (buffer.getInt() != MAGIC) {
+                    damaged = true;
+                    break;
+                }
+                var frameSequence = buffer.getLong();
+                var length = buffer.getInt();
+                if (length < 0 || length > buffer.remaining() - Integer.BYTES) { // checked before allocating, the length is not verified yet
+                    damaged = true;
+                    break;
+                }
+                var payload = new byte[length];
+                buffer.get(payload);
+
+                var crc = new CRC32();
+                crc.update(payload);
+                if (buffer.getInt() != (int) crc.getValue()) {
+                    damaged = true;
+                    break;
+                }
+                if (frameSequence > sequence) {
+                    sequence = frameSequence;
+                    latestCheckpoints = decode(payload);
+                }
+            }
+            damaged |= buffer.hasRemaining();
+        } catch (BufferUnderflowException | IOException e) {
+            damaged = true;
+        }
+
+        if (damaged) {
+            plugin.getLogger().warning("The last timer checkpoint in \"%s\" is incomplete, using the one before".formatted(file.getName()));
+        }
+        return latestCheckpoints;
+    }
+
+    @NotNull
+    private static Map<String, Checkpoint> decode(@NotNull byte[] payloadBytes) throws IOException {
+        try (var payload = new DataInputStream(new ByteArrayInputStream(payloadBytes))) {
+            var count = payload.readInt();
+            var checkpoints = new HashMap<String, Checkpoint>(count);
+            for (var i = 0; i < count; i++) {
+                var checkpoint = new Checkpoint(payload.readUTF(), payload.readLong(), payload.readBoolean(), payload.readBoolean());
+                checkpoints.put(checkpoint.id(), checkpoint);
+            }
+            return checkpoints;
+        }
+    }
+
+    /**
+     * @param id timer id
+     * @return recovered checkpoint of the timer or null if there is none
+     */
+    @Nullable
+    public Checkpoint recoveredCheckpoint(@NotNull String id) {
+        return recoveredCheckpoints.get(id);
+    }
+
+    @NotNull
+    public Map<String, Checkpoint> recoveredCheckpoints() {
+        return recoveredCheckpoints;
+    }
+
+    @NotNull
+    public File file() {
+        return file;
+    }
+
+    /**
+     * Saved state of a timer
+     *
+     * @param id        id of the timer, {@code "timer"} for the {@link Timer} of the plugin
+     * @param time      time of the timer in seconds
+     * @param countDown whether the timer was counting down
+     * @param running   whether the timer was running
+     */
+    public record Checkpoint(@NotNull String id, long time, boolean countDown, boolean running) {
+    }
+
+    /**
+     * Captured checkpoints of all timers which are written as one frame
+     *
+     * @param sequence    sequence number of the frame
+     * @param checkpoints captured checkpoints
+     */
+    private record Frame(long sequence, @NotNull List<Checkpoint> checkpoints) {
+    }
+}
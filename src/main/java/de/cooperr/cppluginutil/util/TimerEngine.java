@@ -0,0 +1,174 @@
+package de.cooperr.cppluginutil.util;
+
+import de.cooperr.cppluginutil.base.PaperPlugin;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitTask;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+
+/**
+ * Drives any number of {@link GameTimer}s (e.g. per player, per team or per world) from a single scheduler task<br>
+ * Thresholds, expiries and displays of the timers are scheduled in a timing wheel, so the cost of a tick only
+ * depends on the events which are due and not on the number of timers.
+ * Timers must only be used on the main thread.
+ */
+public class TimerEngine {
+
+    private final PaperPlugin plugin;
+
+    private final TimingWheel<Runnable> wheel = new TimingWheel<>(0);
+    private final Map<String, GameTimer> timers = new HashMap<>();
+
+    private BukkitTask task;
+
+    /**
+     * Creates the engine, the scheduler task is started once the first timer starts
+     *
+     * @param plugin plugin to which the scheduler task belongs to
+     */
+    public TimerEngine(@NotNull PaperPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Gets the timer with the given id or creates a new timer counting up from zero
+     *
+     * @param id       unique id of the timer
+     * @param audience players who see the timer in their action bar
+     * @return timer with the given id
+     */
+    @NotNull
+    public GameTimer timer(@NotNull String id, @NotNull Supplier<? extends Collection<? extends Player>> audience) {
+        var timer = timers.get(id);
+        if (timer == null) {
+            timer = new GameTimer(this, id, audience);
+            timers.put(id, timer);
+        }
+        return timer;
+    }
+
+    /**
+     * Gets or creates the timer shown to all online players
+     *
+     * @param name name of the timer
+     * @return global timer with the given name
+     * @see TimerEngine#timer(String, Supplier)
+     */
+    @NotNull
+    public GameTimer globalTimer(@NotNull String name) {
+        return timer("global:" + name, () -> plugin.getServer().getOnlinePlayers());
+    }
+
+    /**
+     * Gets or creates the timer of the player, it is only shown to the player while the player is online
+     *
+     * @param player player to whom the timer belongs
+     * @return timer of the player
+     * @see TimerEngine#timer(String, Supplier)
+     */
+    @NotNull
+    public GameTimer playerTimer(@NotNull Player player) {
+        var uniqueId = player.getUniqueId();
+        return timer("player:" + uniqueId, () -> {
+            var onlinePlayer = plugin.getServer().getPlayer(uniqueId);
+            return onlinePlayer == null ? Collections.emptyList() : List.of(onlinePlayer);
+        });
+    }
+
+    /**
+     * Gets or creates the timer of the world, it is shown to all players in the world
+     *
+     * @param world world to which the timer belongs
+     * @return timer of the world
+     * @see TimerEngine#timer(String, Supplier)
+     */
+    @NotNull
+    public GameTimer worldTimer(@NotNull World world) {
+        return timer("world:" + world.getUID(), world::getPlayers);
+    }
+
+    /**
+     * Gets a timer by its unique id
+     *
+     * @param id id of the timer
+     * @return timer with the given id or null if there is no timer with the given id
+     */
+    @Nullable
+    public GameTimer timerById(@NotNull String id) {
+        return timers.get(id);
+    }
+
+    /**
+     * Pauses and removes the timer with the given id
+     *
+     * @param id id of the timer
+     */
+    public void removeTimer(@NotNull String id) {
+        var timer = timers.remove(id);
+        if (timer != null) {
+            timer.pause();
+        }
+    }
+
+    /**
+     * Pauses all timers and stops the scheduler task
+     */
+    public void shutdown() {
+        timers.values().forEach(GameTimer::pause);
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+    }
+
+    /**
+     * Starts the scheduler task if it is not running yet
+     */
+    void startTask() {
+        if (task == null) {
+            task = plugin.getServer().getScheduler().runTaskTimer(plugin, this::tick, 1, 1);
+        }
+    }
+
+    private void tick() {
+        wheel.advance(event -> {
+            try {
+                event.run();
+            } catch (RuntimeException e) {
+                plugin.getLogger().log(Level.SEVERE, "Failed to run timer event", e);
+            }
+        });
+    }
+
+    @NotNull
+    TimingWheel.Entry<Runnable> schedule(long dueTick, @NotNull Runnable event) {
+        return wheel.schedule(dueTick, event);
+    }
+
+    void cancel(@NotNull TimingWheel.Entry<Runnable> entry) {
+        wheel.cancel(entry);
+    }
+
+    long currentTick() {
+        return wheel.currentTick();
+    }
+
+    @NotNull
+    public Collection<GameTimer> timers() {
+        return Collections.unmodifiableCollection(timers.values());
+    }
+
+    @NotNull
+    public PaperPlugin plugin() {
+        return plugin;
+    }
+}
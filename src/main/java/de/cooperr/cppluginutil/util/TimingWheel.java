@@ -0,0 +1,166 @@
+package de.cooperr.cppluginutil.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.function.Consumer;
+
+/**
+ * Hierarchical timing wheel with a resolution of one tick<br>
+ * Scheduling and cancelling are O(1) and advancing only touches the entries which are due or have to be moved
+ * to a finer level, so the cost does not depend on the number of scheduled entries. Entries which are due in the same tick
+ * are passed on in the order in which they were scheduled.
+ *
+ * @param <T> type of the scheduled values
+ */
+final class TimingWheel<T> {
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    private static final long MAX_DELAY = (1L << (SLOT_BITS * LEVELS)) - 1;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final Entry<T>[][] slots = new Entry[LEVELS][SLOTS];
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final Entry<T>[][] tails = new Entry[LEVELS][SLOTS];
+
+    private long currentTick;
+    private int size;
+
+    TimingWheel(long currentTick) {
+        this.currentTick = currentTick;
+    }
+
+    /**
+     * Schedules the value for the given tick, ticks which are not in the future are due in the next tick
+     *
+     * @param dueTick tick in which the value is due
+     * @param value   value to schedule
+     * @return entry to cancel the scheduled value
+     */
+    @NotNull
+    Entry<T> schedule(long dueTick, @NotNull T value) {
+        var entry = new Entry<>(Math.max(dueTick, currentTick + 1), value);
+        insert(entry);
+        size++;
+        return entry;
+    }
+
+    /**
+     * Cancels the entry if it is still scheduled
+     *
+     * @param entry entry to cancel
+     */
+    void cancel(@NotNull Entry<T> entry) {
+        if (entry.level != -1) {
+            unlink(entry);
+            size--;
+        }
+    }
+
+    /**
+     * Advances the wheel by one tick and passes every value which is due to the consumer
+     *
+     * @param consumer consumer of the due values, may schedule or cancel entries
+     */
+    void advance(@NotNull Consumer<T> consumer) {
+        currentTick++;
+
+        // move the entries of the coarser levels down once their slot is reached
+        for (var level = 1; level < LEVELS; level++) {
+            if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) != 0) {
+                break;
+            }
+            var slot = (int) (currentTick >>> (SLOT_BITS * level)) & SLOT_MASK;
+            Entry<T> entry;
+            while ((entry = slots[level][slot]) != null) {
+                unlink(entry);
+                insert(entry);
+            }
+        }
+
+        var slot = (int) currentTick & SLOT_MASK;
+        Entry<T> entry;
+        while ((entry = slots[0][slot]) != null) {
+            unlink(entry);
+            size--;
+            consumer.accept(entry.value);
+        }
+    }
+
+    private void insert(@NotNull Entry<T> entry) {
+        var delay = Math.min(entry.dueTick - currentTick, MAX_DELAY);
+        var dueTick = currentTick + delay; // entries beyond the last level are moved down again once they are reached
+
+        var level = 0;
+        while (level < LEVELS - 1 && delay >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        var slot = (int) (dueTick >>> (SLOT_BITS * level)) & SLOT_MASK;
+
+        entry.level = level;
+        entry.slot = slot;
+        entry.next = null;
+        entry.previous = tails[level][slot]; // appended, so entries of the same tick stay in their order
+        if (entry.previous == null) {
+            slots[level][slot] = entry;
+        } else {
+            entry.previous.next = entry;
+        }
+        tails[level][slot] = entry;
+    }
+
+    private void unlink(@NotNull Entry<T> entry) {
+        if (entry.previous == null) {
+            slots[entry.level][entry.slot] = entry.next;
+        } else {
+            entry.previous.next = entry.next;
+        }
+        if (entry.next == null) {
+            tails[entry.level][entry.slot] = entry.previous;
+        } else {
+            entry.next.previous = entry.previous;
+        }
+        entry.previous = null;
+        entry.next = null;
+        entry.level = -1;
+    }
+
+    long currentTick() {
+        return currentTick;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Scheduled value of a timing wheel
+     *
+     * @param <T> type of the scheduled value
+     */
+    static final class Entry<T> {
+
+        private final long dueTick;
+        private final T value;
+
+        private Entry<T> previous;
+        private Entry<T> next;
+        private int level = -1;
+        private int slot;
+
+        private Entry(long dueTick, @NotNull T value) {
+            this.dueTick = dueTick;
+            this.value = value;
+        }
+
+        long dueTick() {
+            return dueTick;
+        }
+
+        boolean scheduled() {
+            return level != -1;
+        }
+    }
+}